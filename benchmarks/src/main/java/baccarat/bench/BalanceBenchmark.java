@@ -0,0 +1,113 @@
+package baccarat.bench;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.AccountStore;
+import baccarat.server.Hand;
+import baccarat.server.SettlementRecord;
+
+// a bet settling: take the stake, pay it back
+// "store" is the in-memory AccountStore the way a deal uses it, reserve then settle, on the
+// settlement journal the server opens by default or the text journal of --store=text;
+// "files" is the original read and rewrite of "<username>.db" on every change
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BalanceBenchmark {
+    static final BigInteger STAKE = BigInteger.valueOf(100);
+
+    File dir;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({ "settlements", "text" })
+        String log;
+
+        File dir;
+        AccountStore accounts;
+
+        @Setup
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("balance-bench").toFile();
+            accounts = log.equals("text") ? AccountStore.open(new File(dir, "accounts.journal"))
+                    : AccountStore.openSettlements(new File(dir, "settlements.journal"),
+                            new File(dir, "settlements.snapshot"), null);
+        }
+
+        @TearDown
+        public void tearDown() {
+            accounts.close();
+            delete(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        String name = "user-" + Thread.currentThread().getId();
+        // no cards, the settled record is the same size for every hand
+        Hand hand = new Hand();
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("balance-bench").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(dir);
+    }
+
+    // a draw: the stake comes back
+    @Benchmark
+    public BigInteger store(Store store, User user) {
+        if (!store.accounts.reserve(user.name, STAKE)) {
+            store.accounts.set(user.name, BigInteger.valueOf(1_000_000));
+            store.accounts.reserve(user.name, STAKE);
+        }
+        SettlementRecord record = SettlementRecord.of(false, user.name, null, "main", "B", STAKE, STAKE, user.hand);
+        return store.accounts.settle(user.name, STAKE, List.of(record));
+    }
+
+    @Benchmark
+    public BigInteger files(User user) {
+        File file = new File(dir, user.name + ".db");
+        BigInteger balance = file.exists() ? read(file) : BigInteger.valueOf(1_000_000);
+        write(file, balance.subtract(STAKE));
+        balance = read(file).add(STAKE);
+        write(file, balance);
+        return balance;
+    }
+
+    static void delete(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static BigInteger read(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return new BigInteger(reader.readLine());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(File file, BigInteger balance) {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(String.valueOf(balance));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
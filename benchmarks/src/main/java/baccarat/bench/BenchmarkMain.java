@@ -0,0 +1,41 @@
+package baccarat.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.*;
+
+// runs the benchmarks at 1, 4, 8 and 16 threads with the GC profiler, so every result
+// comes with an allocation rate (gc.alloc.rate.norm is bytes per operation)
+//
+// java -jar benchmarks/target/benchmarks.jar [regex] [--threads=1,4] [--json=results.json]
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String include = "baccarat\\.bench\\..*";
+        String threads = "1,4,8,16";
+        String json = null;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = arg.substring("--threads=".length());
+            } else if (arg.startsWith("--json=")) {
+                json = arg.substring("--json=".length());
+            } else {
+                include = arg;
+            }
+        }
+
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .addProfiler(GCProfiler.class);
+            if (json != null) {
+                // one file per thread count to diff against the last run
+                options.resultFormat(ResultFormatType.JSON).result(n + "-" + json);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
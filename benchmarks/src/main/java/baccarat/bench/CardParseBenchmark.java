@@ -0,0 +1,55 @@
+package baccarat.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.Cards;
+
+// card value lookup: byte cards against the old "10.3" strings parsed on every draw
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardParseBenchmark {
+    byte[] cards;
+    String[] text;
+    int i;
+
+    @Setup
+    public void setup() {
+        cards = Cards.shuffled(8, new Random(42));
+        text = new String[cards.length];
+        for (int j = 0; j < cards.length; j++) {
+            text[j] = Cards.toString(cards[j]);
+        }
+    }
+
+    @Benchmark
+    public int value() {
+        i = (i + 1) % cards.length;
+        return Cards.value(cards[i]);
+    }
+
+    @Benchmark
+    public int parse() {
+        i = (i + 1) % text.length;
+        return Cards.value(Cards.parse(text[i]));
+    }
+
+    // the original getCardValue(), minus its println
+    @Benchmark
+    public int legacy() {
+        i = (i + 1) % text.length;
+        String card = text[i];
+        int idx = card.indexOf(".");
+        int value = Integer.parseInt(card.substring(0, idx));
+        if (value == 11 | value == 12 | value == 13) {
+            value = 10;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,56 @@
+package baccarat.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.Cards;
+import baccarat.server.Hand;
+import baccarat.server.Shoe;
+
+// one hand dealt from a shoe shared by every benchmark thread, the way BaccaratGame deals
+// more threads means more contention on the shoe lock
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DealBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedShoe {
+        @Param({ "1", "8" })
+        int decks;
+
+        byte[] cards;
+        volatile Shoe shoe;
+
+        @Setup
+        public void setup() {
+            cards = Cards.shuffled(decks, new Random(42));
+            shoe = new Shoe(cards);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadHand {
+        Hand hand = new Hand();
+    }
+
+    @Benchmark
+    public Hand.Outcome deal(SharedShoe state, ThreadHand local) {
+        Shoe shoe = state.shoe;
+        shoe.lock();
+        try {
+            if (local.hand.deal(shoe)) {
+                return local.hand.outcome();
+            }
+        } finally {
+            shoe.unlock();
+        }
+        // out of cards -- start over from the same shuffle
+        state.shoe = new Shoe(state.cards);
+        return null;
+    }
+}
@@ -0,0 +1,51 @@
+package baccarat.bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.GameHistory;
+import baccarat.server.Hand;
+
+// appending outcomes to the game history
+// this only measures the producer side, the ring and its background writer
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+    // hands per call -- 1 is a deal, more is a multideal
+    @Param({ "1", "100" })
+    int hands;
+
+    File csv;
+    GameHistory history;
+    Hand.Outcome[] outcomes;
+
+    @Setup
+    public void setup() throws IOException {
+        csv = Files.createTempFile("history-bench", ".csv").toFile();
+        history = GameHistory.open(csv);
+        outcomes = new Hand.Outcome[hands];
+        Hand.Outcome[] values = Hand.Outcome.values();
+        for (int i = 0; i < hands; i++) {
+            outcomes[i] = values[i % values.length];
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        history.close();
+        csv.delete();
+        GameHistory.binaryFile(csv).delete();
+    }
+
+    @Benchmark
+    public void record() {
+        history.record(outcomes, hands);
+    }
+}
@@ -0,0 +1,60 @@
+package baccarat.bench;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.AccountStore;
+import baccarat.server.ForcePolicy;
+import baccarat.server.Hand;
+import baccarat.server.SettlementRecord;
+
+// the same settle as BalanceBenchmark.store, with balances in the mapped slot file
+// "op" and "group" wait for the force, "periodic" does not
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappedBalanceBenchmark {
+    static final BigInteger STAKE = BigInteger.valueOf(100);
+
+    @Param({ "op", "group", "periodic:100" })
+    String policy;
+
+    File dir;
+    AccountStore accounts;
+
+    @State(Scope.Thread)
+    public static class User {
+        String name = "user-" + Thread.currentThread().getId();
+        Hand hand = new Hand();
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("mapped-bench").toFile();
+        accounts = AccountStore.openMapped(new File(dir, "accounts.map"), ForcePolicy.parse(policy));
+    }
+
+    @TearDown
+    public void tearDown() {
+        accounts.close();
+        BalanceBenchmark.delete(dir);
+    }
+
+    @Benchmark
+    public BigInteger settle(User user) {
+        if (!accounts.reserve(user.name, STAKE)) {
+            accounts.set(user.name, BigInteger.valueOf(1_000_000));
+            accounts.reserve(user.name, STAKE);
+        }
+        SettlementRecord record = SettlementRecord.of(false, user.name, null, "main", "B", STAKE, STAKE, user.hand);
+        return accounts.settle(user.name, STAKE, List.of(record));
+    }
+}
@@ -0,0 +1,52 @@
+package baccarat.bench;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import baccarat.server.BinaryProtocol;
+
+// decoding a deal request: the "deal|B|100|kenneth" line against a binary DEAL frame body
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParseBenchmark {
+    String line = "deal|B|100|kenneth";
+    ByteBuffer frame;
+
+    @Setup
+    public void setup() {
+        byte[] user = "kenneth".getBytes(StandardCharsets.UTF_8);
+        byte[] amount = BigInteger.valueOf(100).toByteArray();
+        frame = ByteBuffer.allocate(64);
+        frame.put(BinaryProtocol.DEAL).put((byte) 'B');
+        frame.put((byte) amount.length).put(amount);
+        frame.putShort((short) user.length).put(user);
+        frame.flip();
+    }
+
+    @Benchmark
+    public void text(Blackhole bh) {
+        String[] input = line.split("\\|");
+        bh.consume(input[0]);
+        bh.consume(input[1]);
+        bh.consume(new BigInteger(input[2]));
+        bh.consume(input[3]);
+    }
+
+    @Benchmark
+    public void binary(Blackhole bh) {
+        ByteBuffer buf = frame.duplicate();
+        bh.consume(buf.get());
+        bh.consume(buf.get());
+        bh.consume(BinaryProtocol.getAmount(buf));
+        bh.consume(BinaryProtocol.getString(buf));
+    }
+}
@@ -0,0 +1,42 @@
+package baccarat.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import baccarat.server.Cards;
+
+// building and shuffling a new shoe
+// "strings" is the original List<String> + Collections.shuffle version, kept as a baseline
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShuffleBenchmark {
+    @Param({ "1", "4", "8" })
+    int decks;
+
+    Random random = new Random(42);
+
+    @Benchmark
+    public byte[] bytes() {
+        return Cards.shuffled(decks, random);
+    }
+
+    @Benchmark
+    public List<String> strings() {
+        List<String> cards = new ArrayList<>();
+        for (int i = 0; i < decks; i++) {
+            for (int v = 1; v < 14; v++) {
+                for (int s = 1; s < 5; s++) {
+                    cards.add(Integer.toString(v) + "." + Integer.toString(s));
+                }
+            }
+        }
+        Collections.shuffle(cards, random);
+        return cards;
+    }
+}
@@ -0,0 +1,186 @@
+package baccarat.client;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// client side of the server's length-prefixed binary protocol
+// frames are: int length (opcode + body), byte opcode, body
+public class BinaryClient {
+    private static final byte LOGIN = 1;
+    private static final byte BET = 2;
+    private static final byte DEAL = 3;
+    private static final byte EXIT = 4;
+    private static final byte JOIN = 5;
+
+    private static final byte MESSAGE = (byte) 0x81;
+    private static final byte DEAL_RESULT = (byte) 0x82;
+
+    private static final int FLAG_SIX_CARD_RULE = 1;
+    private static final int FLAG_WON = 2;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public BinaryClient(Socket sock) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+    }
+
+    // switch the connection over and print the server's greeting
+    public void handshake() throws IOException {
+        out.write("binary\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        System.out.print(readResponse());
+    }
+
+    // input is the command split on "|" as typed, e.g. { "deal", "B", "10", "john" }
+    // returns the text to show, or null when the command can't be encoded
+    public String send(String[] input) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream frame = new DataOutputStream(body);
+        try {
+            switch (input[0].toLowerCase()) {
+                case "login":
+                    frame.writeByte(LOGIN);
+                    writeString(frame, input[1]);
+                    writeAmount(frame, new BigInteger(input[2]));
+                    break;
+                case "bet":
+                    frame.writeByte(BET);
+                    writeString(frame, input[2]);
+                    writeAmount(frame, new BigInteger(input[1]));
+                    break;
+                case "deal":
+                    frame.writeByte(DEAL);
+                    frame.writeByte(input[1].charAt(0));
+                    writeAmount(frame, new BigInteger(input[2]));
+                    writeString(frame, input[3]);
+                    if (input.length > 4) {
+                        writeString(frame, input[4]);
+                    }
+                    break;
+                case "join":
+                    frame.writeByte(JOIN);
+                    writeString(frame, input[1]);
+                    writeString(frame, input[2]);
+                    break;
+                case "exit":
+                    frame.writeByte(EXIT);
+                    break;
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+        return readResponse();
+    }
+
+    private String readResponse() throws IOException {
+        int length = in.readInt();
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(frame));
+
+        byte opcode = body.readByte();
+        if (opcode == MESSAGE) {
+            return readString(body);
+        }
+        if (opcode != DEAL_RESULT) {
+            return "Unknown response from server.\n";
+        }
+
+        int status = body.readByte();
+        int outcome = body.readByte();
+        int flags = body.readByte();
+        int playerPoints = body.readByte();
+        int bankerPoints = body.readByte();
+        byte[] playerCards = readCards(body);
+        byte[] bankerCards = readCards(body);
+        BigInteger balance = readAmount(body);
+
+        // status: 0 settled, 1 insufficient, 2 not enough cards, 3 account not supported
+        if (status == 1) {
+            return "Insufficient amount\n";
+        }
+        if (status == 2) {
+            return "Not enough cards to deal.\n";
+        }
+        if (status == 3) {
+            return "Account not supported: a win could take the balance past what the account store keeps.\n";
+        }
+
+        StringBuilder sb = new StringBuilder("P");
+        for (byte card : playerCards) {
+            sb.append('|').append(value(card));
+        }
+        sb.append(",B");
+        for (byte card : bankerCards) {
+            sb.append('|').append(value(card));
+        }
+        sb.append(" - ");
+        // outcome: 0 player, 1 banker, 2 draw
+        if (outcome == 0) {
+            sb.append("Player wins with ").append(playerPoints).append(" points.");
+        } else if (outcome == 1 && (flags & FLAG_SIX_CARD_RULE) != 0) {
+            sb.append("Banker wins with '6-Card Rule'");
+        } else if (outcome == 1) {
+            sb.append("Banker wins with ").append(bankerPoints).append(" points.");
+        } else {
+            sb.append("Draw");
+        }
+        sb.append('\n');
+        if (outcome == 2) {
+            sb.append("It's a draw. Balance: ").append(balance).append('\n');
+        } else if ((flags & FLAG_WON) != 0) {
+            sb.append("Bet won. Balance updated: ").append(balance).append('\n');
+        } else {
+            sb.append("Bet lost. Balance remains: ").append(balance).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readCards(DataInputStream body) throws IOException {
+        int count = body.readByte();
+        byte[] slots = new byte[3];
+        body.readFully(slots);
+        byte[] cards = new byte[count];
+        System.arraycopy(slots, 0, cards, 0, count);
+        return cards;
+    }
+
+    // cards are (rank - 1) * 4 + (suit - 1), picture cards count as 10
+    private static int value(byte card) {
+        return Math.min(card / 4 + 1, 10);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeAmount(DataOutputStream out, BigInteger amount) throws IOException {
+        byte[] bytes = amount.toByteArray();
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readAmount(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+}
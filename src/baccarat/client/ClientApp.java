@@ -9,18 +9,97 @@ public class ClientApp {
         System.out.println("Enter one of the following commands:\n");
         System.out.println("Login <username> <balance>\n");
         System.out.println("Bet <betamount> <username>\n");
-        System.out.println("Deal B/P <betamount> <username>\n");
+        System.out.println("Deal B/P <betamount> <username> [request id]\n");
+        System.out.println("Multideal <hands> B/P <betamount> <username> [request id]\n");
+        System.out.println("Join <table> <username>\n");
+        System.out.println("Tables\n");
+        System.out.println("History [table]\n");
+        System.out.println("Stats [table] [last n hands]\n");
+        System.out.println("Metrics [reset]\n");
         System.out.println("Exit");
     }
+
+    // print one response -- the server ends each one with an empty line
+    // returns false once the server has closed the connection
+    private static boolean readResponse(BufferedReader br) throws IOException {
+        String serverResponse;
+        while ((serverResponse = br.readLine()) != null){
+            if (serverResponse.isEmpty()) {
+                return true;
+            }
+            System.out.printf("%s\n", serverResponse);
+        }
+        return false;
+    }
+
+    private static final Console cons = System.console();
+    private static final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+
+    // next non-blank command as "deal|B|10|john", "exit" at end of input
+    private static String nextCommand() throws IOException {
+        while (true) {
+            String command = (cons != null) ? cons.readLine(">>> ") : stdin.readLine();
+            if (command == null) {
+                return "exit";
+            }
+            if (!command.isBlank()) {
+                return command.trim().replaceAll(" ", "|");
+            }
+        }
+    }
+
+    // same commands, sent as binary frames
+    private static void runBinary(Socket sock) throws IOException {
+        BinaryClient client = new BinaryClient(sock);
+        client.handshake();
+        menu();
+        while (true) {
+            String command = nextCommand();
+            String response = client.send(command.split("\\|"));
+            System.out.println(">>> SERVER: ");
+            System.out.print((response != null) ? response : "Invalid command.\n");
+            if (command.equalsIgnoreCase("exit")) {
+                break;
+            }
+        }
+    }
+
+    // prints every update of the table until the server closes the connection or ^C
+    private static void runWatch(Socket sock, String table) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(sock.getOutputStream()));
+        BufferedReader br = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+        bw.write((table != null) ? "watch|" + table : "watch");
+        bw.newLine();
+        bw.flush();
+        while (readResponse(br)) {
+            System.out.println();
+        }
+    }
+
     public static void main(String[] args) {
         
         if (args.length < 1){
-            System.out.println("Usage: client.ClientApp <server_address>:<port>");
+            System.out.println("Usage: client.ClientApp <server_address>:<port> [--binary | --watch [table] | --load [load options]]");
             System.exit(0);
         }
 
+        // headless load test, see LoadGenerator for the options
+        if (args.length > 1 && args[1].equals("--load")) {
+            String[] loadArgs = new String[args.length - 1];
+            loadArgs[0] = args[0];
+            System.arraycopy(args, 2, loadArgs, 1, args.length - 2);
+            try {
+                LoadGenerator.main(loadArgs);
+            } catch (Exception e) {
+                System.out.println("Load test failed: " + e.getMessage());
+            }
+            return;
+        }
+
         System.out.println("Connecting to the server");
 
+        boolean binary = args.length > 1 && args[1].equals("--binary");
+        boolean watch = args.length > 1 && args[1].equals("--watch");
         String[] input = args[0].split(":");
         String serverAddress = input[0];
         int port;
@@ -36,6 +115,18 @@ public class ClientApp {
             Socket sock = new Socket(serverAddress, port);
             System.out.println("Connected!");
 
+            if (binary){
+                runBinary(sock);
+                sock.close();
+                return;
+            }
+
+            if (watch){
+                runWatch(sock, (args.length > 2) ? args[2] : null);
+                sock.close();
+                return;
+            }
+
             // output stream
             OutputStream os = sock.getOutputStream();
             Writer writer = new OutputStreamWriter(os);
@@ -46,25 +137,30 @@ public class ClientApp {
             Reader reader = new InputStreamReader(is);
             BufferedReader br = new BufferedReader(reader);
 
+            // keep the connection open for the whole game
+            bw.write("session");
+            bw.newLine();
+            bw.flush();
+            readResponse(br);
+
             // enable user input for commands
-            Console cons = System.console();
             menu();
-            String command = cons.readLine(">>> ");
+            while (true) {
+                String command = nextCommand();
 
-            // write command to server
-            command = command.replaceAll(" ", "|");
-            bw.write(command);
-            bw.newLine();
-            bw.flush();
-            os.flush();
+                // write command to server
+                bw.write(command);
+                bw.newLine();
+                bw.flush();
 
-            // read from server
-            String serverResponse;
-            System.out.println(">>> SERVER: ");
-            while ((serverResponse = br.readLine()) != null){
-                System.out.printf("%s\n", serverResponse);
+                // read from server
+                System.out.println(">>> SERVER: ");
+                if (!readResponse(br) || command.equalsIgnoreCase("exit")) {
+                    break;
+                }
             }
-            
+            sock.close();
+
         } catch (IOException e){
             System.out.println("Error connecting to server: " + e.getMessage());
         }
@@ -0,0 +1,79 @@
+package baccarat.client;
+
+// log-linear latency histogram in the style of HdrHistogram, values in microseconds
+// values below 2048 get their own bucket, above that every power of two is split into
+// 1024 buckets, so any recorded value is off by less than 0.1%
+// not thread safe -- every player records into its own and they are added up at the end
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^40 us, about 12 days
+    private static final int MAX_EXPONENT = 40 - SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(MAX_EXPONENT + 2) * SUB_BUCKETS];
+    private long total;
+    private long sum;
+    private long max;
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return total;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return (total == 0) ? 0 : (double) sum / total;
+    }
+
+    // highest value that falls in the same bucket as the given percentile (0..100)
+    long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestInBucket(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        // shift so the value fits in 2 * SUB_BUCKETS, values below that are not shifted at all
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        exponent = Math.min(exponent, MAX_EXPONENT);
+        long mantissa = Math.min(value >>> exponent, 2L * SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + (int) mantissa;
+    }
+
+    private static long highestInBucket(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long mantissa = index - (long) exponent * SUB_BUCKETS;
+        return ((mantissa + 1) << exponent) - 1;
+    }
+}
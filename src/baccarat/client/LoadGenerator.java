@@ -0,0 +1,346 @@
+package baccarat.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// headless load generator -- simulates concurrent players against a running ServerApp
+// every player holds its own session open, logs in once and then sends a random mix of
+// login, bet and deal commands
+//
+// closed loop (default): every player waits for the response, thinks, and sends again,
+// so the load is set by the number of players
+// open loop (--qps): the players share a fixed send schedule, and a request that is sent late
+// because the previous one was slow is timed from when it should have been sent, so a
+// stalled server shows up in the percentiles instead of just slowing the generator down
+//
+// usage: java -cp classes baccarat.client.LoadGenerator <server_address>:<port>
+//          [--players=50] [--duration=30] [--warmup=5] [--think=0] [--qps=0]
+//          [--mix=login:1,bet:2,deal:7] [--side=B] [--stake=10] [--tables=main,vip]
+// with --tables the players are spread over the tables round robin
+public class LoadGenerator {
+    private static final String[] COMMANDS = { "login", "bet", "deal" };
+    private static final long BALANCE = 1_000_000_000L;
+    // both of the server's admission answers start with this, the connection cap and the rate
+    private static final String BUSY = "Server busy";
+
+    private final String host;
+    private final int port;
+    private int players = 50;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    // mean think time between requests of one player in closed-loop mode
+    private long thinkMillis = 0;
+    // target requests per second across all players, 0 for closed loop
+    private double qps = 0;
+    // relative weights of login, bet and deal
+    private int[] mix = { 1, 2, 7 };
+    private String side = "B";
+    private long stake = 10;
+    // tables to spread the players over, null to stay at the default table
+    private String[] tables;
+
+    LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: client.LoadGenerator <server_address>:<port> [--players=50] [--duration=30]"
+                    + " [--warmup=5] [--think=0] [--qps=0] [--mix=login:1,bet:2,deal:7] [--side=B] [--stake=10]"
+                    + " [--tables=main,vip]");
+            System.exit(0);
+        }
+
+        String[] address = args[0].split(":");
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(address[0], Integer.parseInt(address[1]));
+            for (int i = 1; i < args.length; i++) {
+                generator.option(args[i]);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            return;
+        }
+        generator.run();
+    }
+
+    private void option(String arg) {
+        int idx = arg.indexOf('=');
+        if (!arg.startsWith("--") || idx < 0) {
+            throw new IllegalArgumentException(arg);
+        }
+        String value = arg.substring(idx + 1);
+        switch (arg.substring(2, idx)) {
+            case "players":
+                players = Integer.parseInt(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "think":
+                thinkMillis = Long.parseLong(value);
+                break;
+            case "qps":
+                qps = Double.parseDouble(value);
+                break;
+            case "mix":
+                mix = parseMix(value);
+                break;
+            case "side":
+                side = value.toUpperCase();
+                break;
+            case "stake":
+                stake = Long.parseLong(value);
+                break;
+            case "tables":
+                tables = value.split(",");
+                break;
+            default:
+                throw new IllegalArgumentException(arg);
+        }
+    }
+
+    // "login:1,bet:2,deal:7" -- commands left out get weight 0
+    private static int[] parseMix(String value) {
+        int[] weights = new int[COMMANDS.length];
+        for (String part : value.split(",")) {
+            String[] kv = part.split(":");
+            int command = Arrays.asList(COMMANDS).indexOf(kv[0].trim().toLowerCase());
+            if (command < 0) {
+                throw new IllegalArgumentException("unknown command " + kv[0]);
+            }
+            weights[command] = Integer.parseInt(kv[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("empty mix " + value);
+        }
+        return weights;
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("%d players, %s, %ds warmup + %ds measured, mix login:%d bet:%d deal:%d%n", players,
+                (qps > 0) ? String.format("open loop at %.0f req/s", qps) : "closed loop, think " + thinkMillis + "ms",
+                warmupSeconds, durationSeconds, mix[0], mix[1], mix[2]);
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        List<Player> all = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Player player = new Player(i, start, measureFrom, end);
+            Thread thread = new Thread(player, "player-" + i);
+            thread.setDaemon(true);
+            all.add(player);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(all, TimeUnit.NANOSECONDS.toMillis(end - measureFrom));
+    }
+
+    private void report(List<Player> all, long measuredMillis) {
+        LatencyHistogram overall = new LatencyHistogram();
+        LatencyHistogram[] byCommand = new LatencyHistogram[COMMANDS.length];
+        long[] errors = new long[COMMANDS.length];
+        long[] busy = new long[COMMANDS.length];
+        long failedPlayers = 0;
+        long turnedAway = 0;
+        for (int c = 0; c < COMMANDS.length; c++) {
+            byCommand[c] = new LatencyHistogram();
+        }
+        for (Player player : all) {
+            for (int c = 0; c < COMMANDS.length; c++) {
+                byCommand[c].add(player.latencies[c]);
+                overall.add(player.latencies[c]);
+                errors[c] += player.errors[c];
+                busy[c] += player.busy[c];
+            }
+            if (player.failure != null) {
+                failedPlayers++;
+            }
+            if (player.turnedAway) {
+                turnedAway++;
+            }
+        }
+
+        System.out.printf("%-8s %10s %10s %8s %8s %10s %10s %10s %10s %10s%n", "command", "count", "req/s",
+                "errors", "busy", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+        for (int c = 0; c < COMMANDS.length; c++) {
+            row(COMMANDS[c], byCommand[c], errors[c], busy[c], measuredMillis);
+        }
+        row("all", overall, Arrays.stream(errors).sum(), Arrays.stream(busy).sum(), measuredMillis);
+        if (turnedAway > 0) {
+            System.out.println(turnedAway + " players were turned away by the server's connection cap or queue");
+        }
+        if (failedPlayers > 0) {
+            System.out.println(failedPlayers + " players lost their connection, first error: "
+                    + all.stream().filter(p -> p.failure != null).findFirst().get().failure.getMessage());
+        }
+    }
+
+    // busy counts the commands the server turned down under load, errors the rest that failed
+    private static void row(String name, LatencyHistogram h, long errors, long busy, long measuredMillis) {
+        System.out.printf("%-8s %10d %10.0f %8d %8d %10.0f %10d %10d %10d %10d%n", name, h.count(),
+                h.count() * 1000.0 / Math.max(1, measuredMillis), errors, busy, h.mean(), h.percentile(50),
+                h.percentile(99), h.percentile(99.9), h.max());
+    }
+
+    // one simulated player on its own connection
+    private class Player implements Runnable {
+        final int id;
+        final String username;
+        final long start;
+        final long measureFrom;
+        final long end;
+        final SplittableRandom random;
+        final LatencyHistogram[] latencies = new LatencyHistogram[COMMANDS.length];
+        final long[] errors = new long[COMMANDS.length];
+        final long[] busy = new long[COMMANDS.length];
+        final int mixTotal = Arrays.stream(mix).sum();
+        volatile IOException failure;
+        // rejected on connecting, before the session started
+        volatile boolean turnedAway;
+
+        Player(int id, long start, long measureFrom, long end) {
+            this.id = id;
+            this.username = "load" + id;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.random = new SplittableRandom(id);
+            for (int c = 0; c < COMMANDS.length; c++) {
+                latencies[c] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            try (Socket sock = new Socket(host, port)) {
+                sock.setTcpNoDelay(true);
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(sock.getOutputStream()));
+                BufferedReader br = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+
+                String session = send(bw, br, "session");
+                if (session != null && session.startsWith(BUSY)) {
+                    turnedAway = true;
+                    return;
+                }
+                send(bw, br, "login|" + username + "|" + BALANCE);
+                if (tables != null) {
+                    send(bw, br, "join|" + tables[id % tables.length] + "|" + username);
+                }
+
+                // open loop: every player sends at qps / players, staggered so they don't all fire together
+                long interval = (qps > 0) ? (long) (players * 1_000_000_000L / qps) : 0;
+                long next = start + ((interval > 0) ? interval * random.nextInt(players) / players : 0);
+                sleepUntil(start);
+
+                while (true) {
+                    long intended;
+                    if (interval > 0) {
+                        sleepUntil(next);
+                        intended = next;
+                        next += interval;
+                    } else {
+                        intended = System.nanoTime();
+                    }
+                    if (intended >= end) {
+                        break;
+                    }
+
+                    int command = pick();
+                    String response = send(bw, br, command(command));
+                    long done = System.nanoTime();
+                    if (response == null) {
+                        throw new EOFException("server closed the connection");
+                    }
+                    if (intended >= measureFrom) {
+                        latencies[command].record(TimeUnit.NANOSECONDS.toMicros(done - intended));
+                        if (response.startsWith(BUSY)) {
+                            busy[command]++;
+                        } else if (isError(response)) {
+                            errors[command]++;
+                        }
+                    }
+
+                    if (interval == 0 && thinkMillis > 0) {
+                        // exponential think time with the configured mean
+                        long think = (long) (-Math.log(1 - random.nextDouble()) * thinkMillis);
+                        sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(think));
+                    }
+                }
+
+                bw.write("exit");
+                bw.newLine();
+                bw.flush();
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private int pick() {
+            int roll = random.nextInt(mixTotal);
+            for (int c = 0; c < mix.length; c++) {
+                roll -= mix[c];
+                if (roll < 0) {
+                    return c;
+                }
+            }
+            return mix.length - 1;
+        }
+
+        private String command(int command) {
+            switch (COMMANDS[command]) {
+                case "login":
+                    return "login|" + username + "|" + BALANCE;
+                case "bet":
+                    return "bet|" + stake + "|" + username;
+                default:
+                    return "deal|" + side + "|" + stake + "|" + username;
+            }
+        }
+    }
+
+    // one request and its response, read up to the empty line that ends it
+    // null if the server closed the connection
+    private static String send(BufferedWriter bw, BufferedReader br, String command) throws IOException {
+        bw.write(command);
+        bw.newLine();
+        bw.flush();
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isEmpty()) {
+                return sb.toString();
+            }
+            sb.append(line).append('\n');
+        }
+        return null;
+    }
+
+    // answers the server gives when a command was not carried out
+    private static boolean isError(String response) {
+        return response.startsWith("Invalid command") || response.startsWith("Insufficient amount")
+                || response.startsWith("Not enough cards") || response.startsWith("Server error");
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package baccarat.server;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// balances in a mapped file with one fixed 64-byte slot per user, updated in place
+//   header: "BACA", int slot size, int slots in use, reserved up to 64 bytes
+//   slot:   byte name length, 31 bytes name (UTF-8), byte set once the balance has been written,
+//           31 bytes balance (two's complement, sign-extended to the full width)
+// a fixed-width balance is one in-place write that never crosses a 512-byte sector, so there is
+// no length to get out of step with it after a crash
+// the file doubles when the slots run out
+class AccountSlots implements BalanceLog {
+    private static final byte[] MAGIC = "BACA".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER = 64;
+    private static final int SLOT = 64;
+    private static final int MAX_FIELD = 31;
+    private static final int USED = 8;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final FileChannel channel;
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    // writes hold the read lock, growing the file holds the write lock
+    private final ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+    private MappedByteBuffer buf;
+    private int used;
+    private final ForcePolicy.Forcer forcer;
+
+    private AccountSlots(File file, ForcePolicy policy, Map<String, BigInteger> balances) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) INITIAL_SLOTS * SLOT);
+            buf.put(0, MAGIC);
+            buf.putInt(4, SLOT);
+            buf.putInt(USED, 0);
+            buf.force();
+        } else {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            byte[] header = new byte[MAGIC.length];
+            buf.get(0, header);
+            if (!Arrays.equals(header, MAGIC) || buf.getInt(4) != SLOT) {
+                throw new IOException("Not an account slot file: " + file);
+            }
+            load(balances);
+        }
+        forcer = policy.start("account-force", this::forceRange, this::forceAll);
+    }
+
+    // fills balances from the file
+    static AccountSlots open(File file, ForcePolicy policy, Map<String, BigInteger> balances) throws IOException {
+        return new AccountSlots(file, policy, balances);
+    }
+
+    private void load(Map<String, BigInteger> balances) {
+        used = buf.getInt(USED);
+        for (int slot = 0; slot < used; slot++) {
+            int offset = HEADER + slot * SLOT;
+            int nameLength = buf.get(offset);
+            if (nameLength <= 0 || buf.get(offset + 1 + MAX_FIELD) == 0) {
+                // claimed but never finished before a crash
+                continue;
+            }
+            byte[] name = new byte[nameLength];
+            byte[] balance = new byte[MAX_FIELD];
+            buf.get(offset + 1, name);
+            buf.get(offset + 2 + MAX_FIELD, balance);
+            String username = new String(name, StandardCharsets.UTF_8);
+            slots.put(username, slot);
+            balances.put(username, new BigInteger(balance));
+        }
+    }
+
+    @Override
+    public String unfit(String username, BigInteger balance) {
+        int name = username.getBytes(StandardCharsets.UTF_8).length;
+        if (name == 0 || name > MAX_FIELD) {
+            return "usernames are limited to " + MAX_FIELD + " bytes";
+        }
+        if (balance.toByteArray().length > MAX_FIELD) {
+            return "balances are limited to " + MAX_FIELD + " bytes";
+        }
+        return null;
+    }
+
+    // login and deals ask unfit() first, these throws are a backstop
+    @Override
+    public long record(String username, BigInteger balance) {
+        byte[] bytes = balance.toByteArray();
+        if (bytes.length > MAX_FIELD) {
+            throw new IllegalArgumentException("Balance too large for an account slot: " + balance);
+        }
+        byte[] fixed = new byte[MAX_FIELD];
+        Arrays.fill(fixed, 0, MAX_FIELD - bytes.length, (balance.signum() < 0) ? (byte) -1 : 0);
+        System.arraycopy(bytes, 0, fixed, MAX_FIELD - bytes.length, bytes.length);
+
+        int slot = slotOf(username);
+        int offset = HEADER + slot * SLOT;
+        mapLock.readLock().lock();
+        try {
+            buf.put(offset + 2 + MAX_FIELD, fixed);
+            buf.put(offset + 1 + MAX_FIELD, (byte) 1);
+            return forcer.written(offset, SLOT);
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void await(long ticket) {
+        forcer.await(ticket);
+    }
+
+    // the user's slot, claiming the next free one on first use
+    private int slotOf(String username) {
+        Integer slot = slots.get(username);
+        if (slot != null) {
+            return slot;
+        }
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length == 0 || name.length > MAX_FIELD) {
+            throw new IllegalArgumentException("Username does not fit an account slot: " + username);
+        }
+        mapLock.writeLock().lock();
+        try {
+            slot = slots.get(username);
+            if (slot != null) {
+                return slot;
+            }
+            slot = used;
+            if (HEADER + (long) (slot + 1) * SLOT > buf.capacity()) {
+                grow();
+            }
+            int offset = HEADER + slot * SLOT;
+            buf.put(offset + 1, name);
+            buf.put(offset, (byte) name.length);
+            used++;
+            buf.putInt(USED, used);
+            // the ticket of the balance write that follows covers this one too
+            forcer.written(USED, 4);
+            slots.put(username, slot);
+            return slot;
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    // caller holds the write lock
+    private void grow() {
+        try {
+            buf.force();
+            long size = HEADER + (long) (buf.capacity() - HEADER) * 2;
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void forceRange(int offset, int length) {
+        mapLock.readLock().lock();
+        try {
+            buf.force(offset, length);
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    private void forceAll() {
+        mapLock.readLock().lock();
+        try {
+            buf.force();
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        forcer.close();
+        forceAll();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Error closing account slots: " + e.getMessage());
+        }
+    }
+}
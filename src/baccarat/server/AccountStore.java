@@ -0,0 +1,219 @@
+package baccarat.server;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+// balances live in memory and are only read from disk at startup
+// every change is handed to a BalanceLog: the settlement journal by default (SettlementJournal),
+// the older write-behind text journal (BalanceJournal), or fixed slots in a mapped file updated
+// in place (AccountSlots)
+// a deal reserves the stake, then settles the hand -- a log of balances sees both as balance
+// changes, the settlement journal only the settled hand
+public class AccountStore {
+    private final ConcurrentHashMap<String, BigInteger> balances;
+    // stakes reserved for hands still being dealt, only changed inside compute() for the user
+    private final ConcurrentHashMap<String, BigInteger> reserved;
+    private final BalanceLog log;
+
+    AccountStore(ConcurrentHashMap<String, BigInteger> balances, BalanceLog log) {
+        this(balances, new ConcurrentHashMap<>(), log);
+    }
+
+    private AccountStore(ConcurrentHashMap<String, BigInteger> balances,
+            ConcurrentHashMap<String, BigInteger> reserved, BalanceLog log) {
+        this.balances = balances;
+        this.reserved = reserved;
+        this.log = log;
+    }
+
+    public static AccountStore open(File journalFile) throws IOException {
+        ConcurrentHashMap<String, BigInteger> balances = new ConcurrentHashMap<>();
+        return new AccountStore(balances, new BalanceJournal(journalFile, balances));
+    }
+
+    // balances from a settlement journal and its snapshot, group committed
+    // legacy is a text journal to import on first start, may be null
+    public static AccountStore openSettlements(File journalFile, File snapshotFile, File legacy) throws IOException {
+        ConcurrentHashMap<String, BigInteger> balances = new ConcurrentHashMap<>();
+        return new AccountStore(balances, new SettlementJournal(journalFile, snapshotFile, legacy, balances));
+    }
+
+    // balances in a fixed-slot mapped file, forced as the policy says
+    public static AccountStore openMapped(File slotFile, ForcePolicy policy) throws IOException {
+        ConcurrentHashMap<String, BigInteger> balances = new ConcurrentHashMap<>();
+        return new AccountStore(balances, AccountSlots.open(slotFile, policy, balances));
+    }
+
+    public BigInteger get(String username) {
+        long start = System.nanoTime();
+        BigInteger balance = balances.computeIfAbsent(username, user -> base(user, null));
+        Metrics.Timer.BALANCE_READ.record(start);
+        return balance;
+    }
+
+    // why the log could not keep this balance for the user, null if it can
+    public String unfit(String username, BigInteger balance) {
+        return log.unfit(username, balance);
+    }
+
+    public void set(String username, BigInteger balance) {
+        long start = System.nanoTime();
+        long[] ticket = { 0 };
+        balances.compute(username, (user, old) -> {
+            ticket[0] = log.record(user, balance);
+            return balance;
+        });
+        log.await(ticket[0]);
+        Metrics.Timer.BALANCE_WRITE.record(start);
+    }
+
+    // take the stake of a bet off the balance if it is covered, atomically per user,
+    // for settle() or release() to finish
+    // returns false and leaves the balance alone when it is not
+    public boolean reserve(String username, BigInteger amount) {
+        long start = System.nanoTime();
+        boolean[] ok = { false };
+        long[] ticket = { 0 };
+        balances.compute(username, (user, old) -> {
+            BigInteger balance = base(user, old);
+            if (balance.compareTo(amount) < 0) {
+                return balance;
+            }
+            ok[0] = true;
+            BigInteger updated = balance.subtract(amount);
+            ticket[0] = log.reserved(user, updated);
+            reserved.merge(user, amount, BigInteger::add);
+            return updated;
+        });
+        log.await(ticket[0]);
+        Metrics.Timer.BALANCE_WRITE.record(start);
+        return ok[0];
+    }
+
+    // give back a reserved stake that was never played, returns the new balance
+    public BigInteger release(String username, BigInteger amount) {
+        long start = System.nanoTime();
+        long[] ticket = { 0 };
+        BigInteger balance = balances.compute(username, (user, old) -> {
+            BigInteger updated = base(user, old).add(amount);
+            ticket[0] = log.reserved(user, updated);
+            unreserve(user, amount);
+            return updated;
+        });
+        log.await(ticket[0]);
+        Metrics.Timer.BALANCE_WRITE.record(start);
+        return balance;
+    }
+
+    // credit what the hands returned (stakes included, may be zero) and record them
+    // every record gets the balance after, returns it
+    public BigInteger settle(String username, BigInteger credit, List<SettlementRecord> records) {
+        long start = System.nanoTime();
+        long[] ticket = { 0 };
+        BigInteger balance = balances.compute(username, (user, old) -> {
+            BigInteger updated = base(user, old).add(credit);
+            // the stakes these hands finish: the credit, less what the hands did to the balance
+            // (a multideal's credit also gives back the stakes of hands it could not deal)
+            BigInteger stakes = credit;
+            for (SettlementRecord record : records) {
+                record.balance = updated;
+                stakes = stakes.subtract(record.delta);
+            }
+            ticket[0] = log.settled(user, updated, credit.signum() != 0, records);
+            unreserve(user, stakes);
+            return updated;
+        });
+        log.await(ticket[0]);
+        Metrics.Timer.BALANCE_WRITE.record(start);
+        return balance;
+    }
+
+    // a standby applying hands settled on the primary -- the stakes were never sent, so the
+    // deltas are the whole change, returns the new balance
+    public BigInteger applySettled(String username, List<SettlementRecord> records) {
+        long start = System.nanoTime();
+        long[] ticket = { 0 };
+        BigInteger balance = balances.compute(username, (user, old) -> {
+            BigInteger delta = BigInteger.ZERO;
+            for (SettlementRecord record : records) {
+                delta = delta.add(record.delta);
+            }
+            BigInteger updated = base(user, old).add(delta);
+            for (SettlementRecord record : records) {
+                record.balance = updated;
+            }
+            ticket[0] = log.settled(user, updated, delta.signum() != 0, records);
+            return updated;
+        });
+        log.await(ticket[0]);
+        Metrics.Timer.BALANCE_WRITE.record(start);
+        return balance;
+    }
+
+    // inside compute() for the user
+    private void unreserve(String username, BigInteger amount) {
+        reserved.computeIfPresent(username, (user, stake) -> {
+            BigInteger left = stake.subtract(amount);
+            return (left.signum() == 0) ? null : left;
+        });
+    }
+
+    // calls action with every balance, inside compute() for the user so it is in order with
+    // that user's changes -- for a standby catching up
+    // stakes of hands still being dealt are added back: the standby only hears of those hands
+    // when they settle, and their deltas take the stakes off again
+    void forEachBalance(BiConsumer<String, BigInteger> action) {
+        for (String user : balances.keySet()) {
+            balances.computeIfPresent(user, (u, balance) -> {
+                action.accept(u, balance.add(reserved.getOrDefault(u, BigInteger.ZERO)));
+                return balance;
+            });
+        }
+    }
+
+    // the same store with every change also handed to the replication log
+    // use the returned store instead of this one
+    public AccountStore replicatedTo(ReplicationLog replication) {
+        return new AccountStore(balances, reserved, replication.wrap(log));
+    }
+
+    // hands with a request id that the log read back at startup, for the retry cache
+    public List<SettlementRecord> recoveredSettlements() {
+        return log.recovered();
+    }
+
+    // the balance a change starts from -- one only found in a "<username>.db" file is logged
+    // first, so a log that adds up settled hands starts from it too
+    private BigInteger base(String username, BigInteger old) {
+        if (old != null) {
+            return old;
+        }
+        BigInteger legacy = loadLegacy(username);
+        if (legacy.signum() != 0) {
+            log.record(username, legacy);
+        }
+        return legacy;
+    }
+
+    // balances from before the journal existed, one "<username>.db" file per user
+    private static BigInteger loadLegacy(String username) {
+        File file = new File(username + ".db");
+        if (!file.exists()) {
+            return BigInteger.ZERO;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return new BigInteger(reader.readLine().trim());
+        } catch (IOException | RuntimeException e) {
+            Log.error("Error reading balance for user " + username + ": " + e.getMessage());
+            return BigInteger.ZERO;
+        }
+    }
+
+    // flush what is still queued and close the log
+    public void close() {
+        log.close();
+    }
+}
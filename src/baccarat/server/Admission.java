@@ -0,0 +1,174 @@
+package baccarat.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// admission control shared by both front-ends, so overload is shed at the door instead of
+// piling up in queues
+//   max connections -- connections open at once, including ones still waiting for a thread
+//   queue           -- work waiting for a thread, see ExecutorStrategy (fixed pools only, the
+//                      other strategies start a thread per task and are bounded by the cap above)
+//   rate            -- commands per second per client address, a token bucket that allows a burst
+// a connection over the cap or the queue gets BUSY and is closed at once, a command over the
+// rate gets RATE_LIMITED and is not run
+// the counts are in the "metrics" report and the metrics MBean
+public final class Admission {
+    public static final String BUSY = "Server busy. Try again later.";
+    public static final String RATE_LIMITED = "Server busy. Too many commands, slow down.";
+
+    // idle buckets are swept once there are more clients than this
+    private static final int MAX_BUCKETS = 4096;
+
+    private final int maxConnections;
+    private final double rate;
+    private final double burst;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder rejectedQueue = new LongAdder();
+    private final LongAdder rejectedRate = new LongAdder();
+    // for the queue depth, null when the executor has no queue
+    private volatile ThreadPoolExecutor pool;
+
+    // rate is commands per second per client, 0 for no limit
+    public Admission(int maxConnections, double rate, double burst) {
+        this.maxConnections = maxConnections;
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    // no limits -- for in-process tests
+    public static Admission unlimited() {
+        return new Admission(Integer.MAX_VALUE, 0, 1);
+    }
+
+    // "--rate=20" or "--rate=20:50", commands per second and burst (default twice the rate)
+    public static double[] parseRate(String text) {
+        int idx = text.indexOf(':');
+        double rate = Double.parseDouble((idx < 0) ? text : text.substring(0, idx));
+        double burst = (idx < 0) ? rate * 2 : Double.parseDouble(text.substring(idx + 1));
+        if (rate < 0 || burst < 1) {
+            throw new IllegalArgumentException(text);
+        }
+        return new double[] { rate, burst };
+    }
+
+    public void watch(ExecutorService executor) {
+        pool = (executor instanceof ThreadPoolExecutor) ? (ThreadPoolExecutor) executor : null;
+    }
+
+    // false when the server is at its connection cap -- the caller rejects the connection
+    public boolean tryOpen() {
+        while (true) {
+            int n = open.get();
+            if (n >= maxConnections) {
+                rejectedConnections.increment();
+                return false;
+            }
+            if (open.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // once for every tryOpen() that returned true
+    public void closed() {
+        open.decrementAndGet();
+    }
+
+    // the executor turned a connection or a batch of commands away
+    public void queueFull() {
+        rejectedQueue.increment();
+    }
+
+    // false when the client has run out of tokens -- the caller skips the command
+    public boolean allow(InetAddress client) {
+        if (rate <= 0 || client == null) {
+            return true;
+        }
+        if (buckets.size() > MAX_BUCKETS) {
+            sweep();
+        }
+        Bucket bucket = buckets.computeIfAbsent(client, k -> new Bucket(burst));
+        if (bucket.take(rate, burst)) {
+            return true;
+        }
+        rejectedRate.increment();
+        return false;
+    }
+
+    // forget clients whose bucket has filled up again, they would start from full anyway
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.fullAt(rate, burst, now));
+    }
+
+    public int openConnections() {
+        return open.get();
+    }
+
+    public int queueDepth() {
+        ThreadPoolExecutor p = pool;
+        return (p == null) ? 0 : p.getQueue().size();
+    }
+
+    public long rejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    public long rejectedQueue() {
+        return rejectedQueue.sum();
+    }
+
+    public long rejectedRate() {
+        return rejectedRate.sum();
+    }
+
+    void report(StringBuilder out) {
+        out.append(String.format("%-14s %10s %10s %10s %10s %10s", "admission", "open", "queued", "conn rej",
+                "queue rej", "rate rej")).append("\n");
+        out.append(String.format("%-14s %10d %10d %10d %10d %10d", "", openConnections(), queueDepth(),
+                rejectedConnections(), rejectedQueue(), rejectedRate())).append("\n");
+    }
+
+    void reset() {
+        rejectedConnections.reset();
+        rejectedQueue.reset();
+        rejectedRate.reset();
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long last = System.nanoTime();
+
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+
+        synchronized boolean take(double rate, double burst) {
+            refill(rate, burst, System.nanoTime());
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean fullAt(double rate, double burst, long now) {
+            refill(rate, burst, now);
+            return tokens >= burst;
+        }
+
+        private void refill(double rate, double burst, long now) {
+            if (now > last) {
+                tokens = Math.min(burst, tokens + (now - last) / 1e9 * rate);
+                last = now;
+            }
+        }
+    }
+}
@@ -1,159 +1,72 @@
-import java.math.BigInteger;
+package baccarat.server;
+
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.io.*;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
-// server logic
+// blocking front-end -- one pool thread per connection, game logic lives in BaccaratGame
 public class BaccaratEngine implements Runnable {
+    // longest a session may sit idle before the server closes it
+    private static final int MAX_IDLE_SECONDS = 300;
+    // how often a watching connection with nothing to send checks for commands and hang-ups
+    private static final int WATCH_POLL_MS = 100;
+
     private final Socket sock;
-    private List<String> cards;
-    private static volatile List<String> gameHistory = new ArrayList<>();
-    // volatile: makes values written by one thread visible to other threads
-    // immediately
-    // multiple threads can modify or refer to data coherently
+    private final BaccaratGame game;
+    private final Admission admission;
+    // accept() returned -- the time until a pool thread picks the session up
+    private final long acceptedAt = System.nanoTime();
+
+    public BaccaratEngine(Socket s, BaccaratGame game) {
+        this(s, game, Admission.unlimited());
+    }
 
-    public BaccaratEngine(Socket s) {
+    public BaccaratEngine(Socket s, BaccaratGame game, Admission admission) {
         sock = s;
-        this.cards = loadCards();
+        this.game = game;
+        this.admission = admission;
     }
 
     @Override
     public void run() {
+        Metrics.Timer.ACCEPT.record(acceptedAt);
         String threadName = Thread.currentThread().getName();
 
         try {
+            sock.setTcpNoDelay(true);
+
             // output stream
             OutputStream os = sock.getOutputStream();
             Writer writer = new OutputStreamWriter(os);
             BufferedWriter bw = new BufferedWriter(writer);
 
             // input stream
-            InputStream is = sock.getInputStream();
+            // the first line is read straight off the buffered stream so nothing is lost
+            // if the connection switches to the binary protocol after it
+            InputStream is = new BufferedInputStream(sock.getInputStream());
             Reader reader = new InputStreamReader(is);
             BufferedReader br = new BufferedReader(reader);
 
-            BigInteger betAmount = BigInteger.ZERO;
-
             // read input from client
-            String clientResponse = br.readLine();
-            System.out.printf(">>> CLIENT: %s\n", clientResponse);
-            String[] input = clientResponse.trim().split("\\|");
-            String command = input[0];
-
-            // process the user input commands
-            switch (command.toLowerCase()) {
-                case "login":
-                    String username = input[1];
-                    BigInteger balance = new BigInteger(input[2]);
-
-                    // create a file named "kenneth.db"
-                    // with the value of '100' as the content
-                    File userFile = new File(username + ".db");
-                    FileWriter fw = new FileWriter(userFile, false);
-                    BufferedWriter bwFile = new BufferedWriter(fw);
-                    bwFile.write(String.valueOf(balance));
-                    bwFile.flush();
-
-                    // write result back to client
-                    bw.write("User " + username + " logged in with balance: " + balance);
-                    bw.newLine();
-                    bw.flush();
-                    os.flush();
-                    break;
-
-                // bet <betamount> <username>
-                case "bet":
-                    // check if balance is sufficient
-                    System.out.println(input);
-                    username = input[2];
-                    betAmount = new BigInteger(input[1]);
-                    balance = getBalance(username);
-                    if (balance.compareTo(betAmount) < 0) {
-                        bw.write("Insufficient amount");
-                    } else {
-                        bw.write(username + " - Bet of " + betAmount + " placed.");
-                    }
-                    bw.newLine();
-                    bw.flush();
-                    os.flush();
-                    break;
-
-                // deal B <betamount> <username>
-                case "deal":
-                    betAmount = new BigInteger(input[2]);
-                    username = input[3];
-                    String side = input[1];
-                    balance = getBalance(username);
-                    System.out.println(betAmount);
-                    if (balance.compareTo(betAmount) < 0) {
-                        bw.write("Insufficient amount");
-                        bw.newLine();
-                    } else {
-                        // "P|1|10|3,B|10|10|7 - Banker wins with 7 points"
-                        String result = dealCards(side);
-                        bw.write(result);
-                        bw.newLine();
-                        System.out.println(result);
-
-                        if (result.contains("Not enough cards")){
-                            bw.newLine();
-                        } else if (result.contains("wins")) {
-                            if (result.contains("Banker") && side.equals("B")) {
-                                if (result.contains("6-Card Rule")){
-                                    balance = balance.add(betAmount.multiply(new BigInteger("2")));
-                                } else{
-                                    balance = balance.add(betAmount);
-                                    bw.write("Bet won. Balance updated: " + balance);
-                                    bw.newLine();
-                                }
-                            } else if (result.contains("Player") && side.equals("P")) {
-                                balance = balance.add(betAmount);
-                                bw.write("Bet won. Balance updated: " + balance);
-                                bw.newLine();
-                            } else {
-                                balance = balance.subtract(betAmount);
-                                bw.write("Bet lost. Balance remains: " + balance);
-                                bw.newLine();
-                            }
-                            
-                        } else {
-                            if (side.equals("D")){
-                                // "Tie" bet -- both hands tie
-                                // payout is 8 times
-                                balance = balance.add(betAmount.multiply(new BigInteger("8")));
-                                bw.write("It's a 'Tie' bet. Balance updated: " + balance);
-                                bw.newLine();
-                            } else {
-                                bw.write("It's a draw. Bet refunded.");
-                                bw.newLine();
-                            }
-                        }
-                        System.out.println(balance);
-                        updateBalance(username, balance);
-                    }
-                    bw.flush();
-                    os.flush();
-                    break;
-
-                case "exit":
-                    try{
-                        bw.write("You have exited the game!");
-                        bw.flush();
-                        os.flush();
-                    } catch (IOException e){
-                        System.out.println("Error in exiting the game: " + e.getMessage());
-                    } finally {
-                        sock.close();
-                        System.exit(1);
-                    }
-
-
-                default:
-                    bw.write("Invalid command.");
-                    bw.flush();
-                    os.flush();
-                    break;
-
+            String clientResponse = readFirstLine(is);
+            Log.debug(() -> ">>> CLIENT: " + clientResponse);
+
+            if (clientResponse != null) {
+                String[] input = BaccaratGame.parse(clientResponse);
+                if (input[0].equalsIgnoreCase("session")) {
+                    runSession(input, br, bw);
+                } else if (input[0].equalsIgnoreCase(BinaryProtocol.HANDSHAKE)) {
+                    runBinary(is, os);
+                } else if (isWatch(input)) {
+                    // one watch per connection, until the client hangs up
+                    watch(input, br, bw);
+                } else {
+                    // one command per connection
+                    handleCommand(input, bw, false);
+                }
             }
 
             os.close();
@@ -161,224 +74,242 @@ public class BaccaratEngine implements Runnable {
             sock.close();
 
         } catch (IOException e) {
-            System.out.println("Error handling client: " + e.getMessage());
+            Log.warn("Error handling client: " + e.getMessage());
         }
 
     }
 
-    // get balance from username.db file
-    private BigInteger getBalance(String username) {
-        try {
-            FileReader reader = new FileReader(username + ".db");
-            try (BufferedReader bufferedReader = new BufferedReader(reader)) {
-                return new BigInteger(bufferedReader.readLine());
-            }
-        } catch (IOException e) {
-            System.out.println("Error reading balance for user " + username + ": " + e.getMessage());
-            return BigInteger.ZERO;
-        }
-    }
-
-    private void updateBalance(String username, BigInteger balance) {
-        try (FileWriter writer = new FileWriter(username + ".db")) {
-            writer.write(String.valueOf(balance));
-        } catch (IOException e) {
-            System.out.println("Error updating balance for user " + username + ": " + e.getMessage());
+    private static String readFirstLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1 && b != '\n') {
+            line.write(b);
         }
-    }
-
-    private synchronized int getCardValue(String card) {
-        int idx = card.indexOf(".");
-        int value = Integer.parseInt(card.substring(0, idx));
-        if (value == 11 | value == 12 | value == 13) {
-            value = 10;
+        if (b == -1 && line.size() == 0) {
+            return null;
         }
-        System.out.println("#### getCardValue >>>>" + value);
-        return value;
+        return line.toString("UTF-8");
     }
 
-    private synchronized List<String> loadCards() {
-        List<String> cards = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader("cards.db"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                cards.add(line);
+    // idle timeout asked for by session|<idle seconds>, capped at MAX_IDLE_SECONDS
+    static int idleSeconds(String[] request) {
+        int idleSeconds = MAX_IDLE_SECONDS;
+        if (request.length > 1) {
+            try {
+                idleSeconds = Math.max(1, Math.min(Integer.parseInt(request[1]), MAX_IDLE_SECONDS));
+            } catch (NumberFormatException e) {
+                // keep the default
             }
-        } catch (IOException e) {
-            System.out.println("Error loading cards: " + e.getMessage());
         }
-        return cards;
+        return idleSeconds;
     }
 
-    private String dealCards(String side) {
-
-        if (cards.size() < 4) {
-            return "Not enough cards to deal.";
-        }
+    // session|<idle seconds>
+    // keeps the connection open and handles commands until exit, EOF or the idle timeout
+    // each response ends with an empty line so the client knows where it stops
+    // clients may pipeline -- send several commands before reading -- and get the answers in order
+    private void runSession(String[] request, BufferedReader br, BufferedWriter bw) throws IOException {
+        int idleSeconds = idleSeconds(request);
+        sock.setSoTimeout(idleSeconds * 1000);
 
-        int playerSum = 0;
-        int bankerSum = 0;
-        List<String> playerCards = new ArrayList<>();
-        List<String> bankerCards = new ArrayList<>();
-        String result;
-        int[] milestones = { 10, 20 }; // array to store milstone values
+        bw.write("Session started. Idle timeout: " + idleSeconds + "s");
+        bw.newLine();
+        bw.newLine();
+        bw.flush();
 
-        synchronized (cards) {
-            // draw initial 2 cards for player
-            for (int i = 0; i < 2; i++) {
-                String playerCard = cards.get(0);
-                cards.remove(0);
-                playerCards.add(playerCard);
-                int value = getCardValue(playerCard);
-                // get the total sum of the first two cards
-                playerSum += value;
-            }
-
-            // draw initial 2 cards for banker
-            for (int i = 0; i < 2; i++) {
-                String bankerCard = cards.get(0);
-                cards.remove(0);
-                bankerCards.add(bankerCard);
-                int value = getCardValue(bankerCard);
-                // get the total sum of the first two cards
-                bankerSum += value;
-            }
-
-            // implement rules for drawing the third card
-            // draw third card if sum <= 15
-            if (playerSum <= 15) {
-                if (cards.size() < 1){
-                    return "Not enough cards to deal.";
-                } else{
-                    String playerCard = cards.get(0);
-                    playerCards.add(playerCard);
-                    cards.remove(0);
-                    int value = getCardValue(playerCard);
-                    // get the total sum of the first two cards
-                    playerSum += value;
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String received = line;
+                Log.debug(() -> ">>> CLIENT: " + received);
+                if (line.isBlank()) {
+                    continue;
                 }
-            }
-
-            if (bankerSum <= 15) {
-                if (cards.size() < 1)
-                    return "Not enough cards to deal.";
-                else{
-                    String bankerCard = cards.get(0);
-                    bankerCards.add(bankerCard);
-                    cards.remove(0);
-                    int value = getCardValue(bankerCard);
-                    // get the total sum of the first two cards
-                    bankerSum += value;
+                String[] input = BaccaratGame.parse(line);
+                if (isWatch(input)) {
+                    if (!watch(input, br, bw)) {
+                        break;
+                    }
+                    continue;
+                }
+                boolean keepGoing = handleCommand(input, bw, true);
+                bw.newLine();
+                // pipelined commands already waiting are answered first, then flushed together
+                if (!keepGoing || !br.ready()) {
+                    bw.flush();
+                }
+                if (!keepGoing) {
+                    break;
                 }
             }
+        } catch (SocketTimeoutException e) {
+            bw.write("Session timed out.");
+            bw.newLine();
+            bw.newLine();
+            bw.flush();
+        }
+    }
 
-            // determine result
-            System.out.println("playerSum > " + playerSum);
-            System.out.println("bankerSum > " + bankerSum);
-
-            if (playerSum >= 10 && playerSum < 20) {
-                System.out.println("P more than 10 and less than 20");
-                playerSum -= milestones[0];
-            }
-
-            if (playerSum >= 20) {
-                System.out.println("P more than 20");
-                playerSum -= milestones[1];
-            }
-
-            if (bankerSum >= 10 && bankerSum < 20) {
-                System.out.println("B more than 10 and less than 20");
-                bankerSum -= milestones[0];
-            }
-
-            if (bankerSum >= 20) {
-                System.out.println("B more than 20");
-                bankerSum -= milestones[1];
-            }
-            System.out.println("aft playerSum > " + playerSum);
-            System.out.println("aft bankerSum > " + bankerSum);
+    private static boolean isWatch(String[] input) {
+        return input[0].equalsIgnoreCase("watch");
+    }
 
-            if (playerSum > bankerSum) {
-                result = "Player wins with " + playerSum + " points.";
-            } else if (bankerSum > playerSum) {
-                if (bankerSum == 6){
-                    result = "Banker wins with '6-Card Rule'";
-                } else{
-                    result = "Banker wins with " + bankerSum + " points.";
+    // watch [table]
+    // streams the table's updates until unwatch, exit or the client hangs up
+    // the pool thread stays with the connection the whole time, so many watchers want --nio
+    // returns false when the session should end
+    private boolean watch(String[] input, BufferedReader br, BufferedWriter bw) throws IOException {
+        if (!admission.allow(sock.getInetAddress())) {
+            bw.write(Admission.RATE_LIMITED + "\n\n");
+            bw.flush();
+            return true;
+        }
+        Broadcast.Watcher watcher = game.watch((input.length > 1) ? input[1] : null, null);
+        if (watcher == null) {
+            bw.write("Unknown table " + input[1] + ".\n\n");
+            bw.flush();
+            return true;
+        }
+        // the updates are bytes already, they bypass the writer
+        bw.flush();
+        OutputStream os = new BufferedOutputStream(sock.getOutputStream());
+        WritableByteChannel out = Channels.newChannel(os);
+        int idleMillis = sock.getSoTimeout();
+        try {
+            while (true) {
+                ByteBuffer update = watcher.poll(WATCH_POLL_MS);
+                if (update == null) {
+                    if (hungUp(br, idleMillis)) {
+                        return false;
+                    }
+                } else {
+                    // whatever else is queued goes out in the same flush
+                    int n = 0;
+                    do {
+                        out.write(update);
+                    } while (++n < Broadcast.QUEUE && (update = watcher.poll()) != null);
+                    os.flush();
+                }
+                while (br.ready()) {
+                    String line = br.readLine();
+                    String[] command = BaccaratGame.parse(line);
+                    if (command[0].equalsIgnoreCase("unwatch")) {
+                        bw.write("Stopped watching.\n\n");
+                        bw.flush();
+                        return true;
+                    }
+                    if (BaccaratGame.isExit(command)) {
+                        bw.write(game.handle(command) + "\n");
+                        bw.flush();
+                        return false;
+                    }
+                    if (!line.isBlank()) {
+                        out.write(Broadcast.encode("Watching. Send unwatch to stop.\n\n"));
+                        os.flush();
+                    }
                 }
-            } else {
-                result = "Draw";
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            watcher.close();
         }
+    }
 
-        // synchronised: restricts access around a particular piece of code to one
-        // thread at a time
-        // only one thread can execute the section of the code -- prevents race
-        // conditions
-        synchronized (gameHistory) {
-            if (result.contains("Banker wins")) {
-                // System.out.println("Adding 'B' to gameHistory!");
-                gameHistory.add("B");
-            } else if (result.contains("Player wins")) {
-                // System.out.println("Adding 'P' to gameHistory!");
-                gameHistory.add("P");
-            } else if (result.contains("Draw")) {
-                // System.out.println("Adding 'D' to gameHistory!");
-                gameHistory.add("D");
+    // true when the client has closed its end, waits a millisecond at most
+    // only looks when nothing is buffered, and puts back what it reads
+    private boolean hungUp(BufferedReader br, int idleMillis) throws IOException {
+        if (br.ready()) {
+            return false;
+        }
+        sock.setSoTimeout(1);
+        try {
+            br.mark(1);
+            if (br.read() < 0) {
+                return true;
             }
-            
-            System.out.println(">>> " + gameHistory);
-
-            // write to history if game count reaches 6
-            if (gameHistory.size() == 6) {
-                // System.out.println("gameHistory has reached 6 entries");
-                // write into csv file and clear
-                writeGameHistory(new ArrayList<>(gameHistory));
-                gameHistory.clear();
-            } 
-                    
+            br.reset();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            sock.setSoTimeout(idleMillis);
         }
+    }
 
-        // save the updated cards list back to "cards.db"
-        // remove those cards that were drawn from "cards.db"
-        saveCards();
+    // length-prefixed frames until EXIT, EOF or the idle timeout, see BinaryProtocol
+    private void runBinary(InputStream is, OutputStream os) throws IOException {
+        sock.setSoTimeout(MAX_IDLE_SECONDS * 1000);
+        DataInputStream in = new DataInputStream(is);
+        OutputStream out = new BufferedOutputStream(os);
+        Hand hand = new Hand();
 
-        // send the outcome to client
-        // P|1|10|3,B|10|10|7
-        String serverResponse = "P";
-        for (String playerCard : playerCards) {
-            serverResponse = serverResponse + "|" + Integer.toString(getCardValue(playerCard));
-        }
-        serverResponse = serverResponse + ",B";
-        for (String bankerCard : bankerCards) {
-            serverResponse = serverResponse + "|" + Integer.toString(getCardValue(bankerCard));
+        writeFrame(BinaryProtocol.message("Binary protocol.\n"), out);
+        out.flush();
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 1 || length > BinaryProtocol.MAX_FRAME) {
+                    Log.warn("Bad frame length from client: " + length);
+                    break;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+
+                ByteBuffer request = ByteBuffer.wrap(frame);
+                boolean exit = BinaryProtocol.isExit(request);
+                if (!exit && !admission.allow(sock.getInetAddress())) {
+                    writeFrame(BinaryProtocol.message(Admission.RATE_LIMITED + "\n"), out);
+                } else {
+                    writeFrame(BinaryProtocol.handle(game, hand, request), out);
+                }
+                // flush once the pipelined frames already received have been answered
+                if (exit || in.available() == 0) {
+                    out.flush();
+                }
+                if (exit) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // idle too long -- just close
         }
+    }
 
-        return serverResponse + " - " + result;
+    private static void writeFrame(ByteBuffer frame, OutputStream out) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
     }
 
-    private static synchronized void writeGameHistory(List<String> gameHistorySnapshot) {
-        try (FileWriter csvWriter = new FileWriter("game_history.csv", true)) {
-            synchronized (gameHistorySnapshot) {
-                if (!gameHistorySnapshot.isEmpty()) {
-                    csvWriter.append(String.join(",", gameHistorySnapshot)).append("\n");
-                    csvWriter.flush();
-                }
+    // returns false when the session should end
+    // in a session the caller decides when to flush
+    private boolean handleCommand(String[] input, BufferedWriter bw, boolean session) throws IOException {
+        // exit is always let through so a limited client can still leave
+        if (!BaccaratGame.isExit(input) && !admission.allow(sock.getInetAddress())) {
+            bw.write(Admission.RATE_LIMITED + "\n");
+            if (!session) {
+                bw.flush();
             }
-        } catch (IOException e) {
-            System.out.println("Error writing game history: " + e.getMessage());
+            return true;
+        }
+        bw.write(game.handle(input));
+        if (!session) {
+            bw.flush();
         }
-    }
 
-    private synchronized void saveCards() {
-        // save the shuffled cards to a data file named "cards.db"
-        try (FileWriter writer = new FileWriter("cards.db")) {
-            for (String card : cards) {
-                writer.write(card + "\n");
+        if (BaccaratGame.isExit(input)) {
+            if (session) {
+                // only end this player's session, the server keeps running
+                return false;
             }
-            System.out.println("Shuffled cards saved to cards.db");
-        } catch (IOException e) {
-            System.out.println("Error writing to cards.db: " + e.getMessage());
+            sock.close();
+            System.exit(1);
         }
+        return true;
     }
 }
@@ -0,0 +1,656 @@
+package baccarat.server;
+
+import java.math.BigInteger;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// game logic shared by the blocking and the NIO front-ends
+// takes a parsed command and returns the response text, so it knows nothing about sockets
+public class BaccaratGame {
+    // players who never joined a table play here
+    public static final String DEFAULT_TABLE = "main";
+
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+    private final Table defaultTable;
+    private final AccountStore accounts;
+    // most hands one multideal command may ask for
+    private static final int MAX_MULTIDEAL = 1000;
+    private static final String UNSUPPORTED_DEAL =
+            "Account not supported: a win could take the balance past what the account store keeps.";
+    // the account store could not get a change to disk
+    static final String NOT_SAVED = "Server error: the balance could not be saved.";
+    // table each user last joined
+    private final ConcurrentHashMap<String, Table> seats = new ConcurrentHashMap<>();
+    // one Hand per handler thread, refilled on every deal
+    private static final ThreadLocal<Hand> hands = ThreadLocal.withInitial(Hand::new);
+    // deals and multideals sent with a request id, by "<username>|<request id>"
+    // only bets that were played are remembered, a refused one may be sent again
+    private final RecentRequests<Replay> recentDeals = new RecentRequests<>(SettlementJournal.RECENT,
+            replay -> replay.settlement.status == DealStatus.SETTLED);
+    private final RecentRequests<String> recentMultideals = new RecentRequests<>(SettlementJournal.RECENT / 8,
+            reply -> !reply.startsWith("Insufficient amount"));
+
+    // a settled deal as it was first answered
+    private static final class Replay {
+        final Settlement settlement;
+        final Hand hand = new Hand();
+
+        Replay(Settlement settlement, Hand hand) {
+            this.settlement = settlement;
+            this.hand.copyFrom(hand);
+        }
+    }
+
+    // the first table is where players start
+    public BaccaratGame(List<Table> tables, AccountStore accounts) {
+        for (Table table : tables) {
+            this.tables.put(table.id(), table);
+        }
+        this.defaultTable = tables.get(0);
+        this.accounts = accounts;
+        recoverRequests(accounts.recoveredSettlements());
+    }
+
+    // retries that arrive after a restart get the answer from the journal
+    private void recoverRequests(List<SettlementRecord> records) {
+        Hand hand = new Hand();
+        StringBuilder reply = new StringBuilder();
+        int dealt = 0;
+        for (int i = 0; i < records.size(); i++) {
+            SettlementRecord record = records.get(i);
+            String key = requestKey(record.username, record.requestId);
+            record.restore(hand);
+            if (record.type == SettlementRecord.HAND) {
+                recentDeals.put(key, new Replay(new Settlement(DealStatus.SETTLED, record.balance, record.payout()), hand));
+                continue;
+            }
+            // the hands of one multideal are together in the journal
+            hand.describe(reply);
+            reply.append("\n");
+            dealt++;
+            SettlementRecord next = (i + 1 < records.size()) ? records.get(i + 1) : null;
+            if (next == null || next.type != SettlementRecord.MULTI_HAND || !requestKey(next.username, next.requestId).equals(key)) {
+                // the count asked for is not journaled, so a short batch comes back without its
+                // "Not enough cards" line
+                reply.append("Dealt " + dealt + " hands. Balance updated: " + record.balance).append("\n");
+                recentMultideals.put(key, reply.toString());
+                reply.setLength(0);
+                dealt = 0;
+            }
+        }
+    }
+
+    // a standby applying hands settled on the primary, retries of them are answered from here
+    // after it takes over
+    void applySettled(List<SettlementRecord> records) {
+        accounts.applySettled(records.get(0).username, records);
+        List<SettlementRecord> withIds = new ArrayList<>();
+        for (SettlementRecord record : records) {
+            if (record.requestId != null) {
+                withIds.add(record);
+            }
+        }
+        recoverRequests(withIds);
+    }
+
+    Table table(String id) {
+        return tables.get(id);
+    }
+
+    private static String requestKey(String username, String requestId) {
+        return username + "|" + requestId;
+    }
+
+    // a single table with a loop of its own
+    public BaccaratGame(Shoe shoe, AccountStore accounts, GameHistory history) {
+        this(List.of(new Table(DEFAULT_TABLE, shoe, history, Table.newLoops(1)[0])), accounts);
+    }
+
+    public static boolean isExit(String[] input) {
+        return input[0].equalsIgnoreCase("exit");
+    }
+
+    // "deal|B|10|john" -> { "deal", "B", "10", "john" }
+    public static String[] parse(String line) {
+        long start = System.nanoTime();
+        String[] input = line.trim().split("\\|");
+        Metrics.Timer.PARSE.record(start);
+        return input;
+    }
+
+    // returns one or more lines, each ending with a newline
+    public String handle(String[] input) throws IOException {
+        String name = Metrics.commandName(input);
+        Metrics.CommandEvent event = new Metrics.CommandEvent();
+        event.begin();
+        StringBuilder out = new StringBuilder();
+        String reply;
+        try {
+            handleCommand(input, out);
+            reply = out.toString();
+        } catch (UncheckedIOException e) {
+            Log.error("Error handling command: " + e.getMessage() + ": " + e.getCause().getMessage());
+            reply = NOT_SAVED + "\n";
+        } catch (RuntimeException e) {
+            // missing arguments or amounts that are not numbers
+            Log.warn("Error handling command: " + e.getMessage());
+            reply = "Invalid command.\n";
+        }
+
+        boolean error = isError(reply);
+        Metrics.command(name);
+        if (error) {
+            Metrics.error(name);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = name;
+            event.error = error;
+            event.commit();
+        }
+        return reply;
+    }
+
+    // replies for commands that were not carried out
+    private static boolean isError(String reply) {
+        return reply.startsWith("Invalid command") || reply.startsWith("Insufficient amount")
+                || reply.startsWith("Not enough cards") || reply.startsWith("Unknown table")
+                || reply.startsWith("Account not supported") || reply.startsWith("Server error");
+    }
+
+    private void handleCommand(String[] input, StringBuilder out) throws IOException {
+        BigInteger betAmount = BigInteger.ZERO;
+        String command = input[0];
+
+        // process the user input commands
+        switch (command.toLowerCase()) {
+            case "login":
+                String username = input[1];
+                BigInteger balance = new BigInteger(input[2]);
+
+                String unfit = accounts.unfit(username, balance);
+                if (unfit != null) {
+                    out.append("Account not supported: " + unfit + ".").append("\n");
+                    break;
+                }
+                accounts.set(username, balance);
+
+                // write result back to client
+                out.append("User " + username + " logged in with balance: " + balance).append("\n");
+                break;
+
+            // bet <betamount> <username>
+            case "bet":
+                // check if balance is sufficient
+                username = input[2];
+                betAmount = new BigInteger(input[1]);
+                checkStake(betAmount);
+                balance = accounts.get(username);
+                if (balance.compareTo(betAmount) < 0) {
+                    out.append("Insufficient amount");
+                } else {
+                    out.append(username + " - Bet of " + betAmount + " placed.");
+                }
+                out.append("\n");
+                break;
+
+            // deal B <betamount> <username> [request id]
+            case "deal":
+                betAmount = new BigInteger(input[2]);
+                username = input[3];
+                String side = input[1];
+                Hand hand = hands.get();
+                Settlement settlement = deal(username, side, betAmount, hand, (input.length > 4) ? input[4] : null);
+                describe(settlement, side, hand, out);
+                break;
+
+            // multideal <n> B <betamount> <username> [request id]
+            case "multideal":
+                if (input.length > 5) {
+                    out.append(recentMultideals.run(requestKey(input[4], input[5]), () -> {
+                        StringBuilder reply = new StringBuilder();
+                        timedMultiDeal(input, input[5], reply);
+                        return reply.toString();
+                    }));
+                } else {
+                    timedMultiDeal(input, null, out);
+                }
+                break;
+
+            // join <table> <username>
+            case "join":
+                Table table = tables.get(input[1]);
+                if (table == null) {
+                    out.append("Unknown table " + input[1] + ".").append("\n");
+                    break;
+                }
+                seats.put(input[2], table);
+                out.append(input[2] + " joined table " + table.id() + ".").append("\n");
+                break;
+
+            // history [table]
+            case "history":
+                table = (input.length > 1) ? tables.get(input[1]) : defaultTable;
+                if (table == null) {
+                    out.append("Unknown table " + input[1] + ".").append("\n");
+                    break;
+                }
+                Table roads = table;
+                table.call(() -> {
+                    out.append("Table " + roads.id() + " - " + roads.stats().hands() + " hands").append("\n");
+                    out.append("Bead plate:").append("\n");
+                    roads.stats().beadPlate(out);
+                    out.append("Big road: ");
+                    roads.stats().bigRoad(out);
+                    return null;
+                });
+                break;
+
+            // stats [table] [last n hands]
+            case "stats":
+                table = (input.length > 1) ? tables.get(input[1]) : defaultTable;
+                if (table == null) {
+                    out.append("Unknown table " + input[1] + ".").append("\n");
+                    break;
+                }
+                int lastN = (input.length > 2) ? Integer.parseInt(input[2]) : 100;
+                Table counted = table;
+                table.call(() -> {
+                    out.append("Table " + counted.id() + " - ");
+                    counted.stats().describe(lastN, out);
+                    return null;
+                });
+                break;
+
+            // metrics [reset]
+            case "metrics":
+                if (input.length > 1 && input[1].equalsIgnoreCase("reset")) {
+                    Metrics.reset();
+                    out.append("Metrics reset.").append("\n");
+                    break;
+                }
+                Metrics.report(out);
+                break;
+
+            case "tables":
+                for (Table t : tables.values()) {
+                    out.append(t.id() + " - " + t.decks() + " decks, " + t.shoe().remaining() + " cards left")
+                            .append("\n");
+                }
+                break;
+
+            case "exit":
+                out.append("You have exited the game!").append("\n");
+                break;
+
+            default:
+                out.append("Invalid command.").append("\n");
+                break;
+
+        }
+    }
+
+    // outcome of one deal command
+    // UNSUPPORTED -- a win could take the balance past what the account store keeps
+    public enum DealStatus { SETTLED, INSUFFICIENT, NO_CARDS, UNSUPPORTED }
+
+    public static class Settlement {
+        public final DealStatus status;
+        public final BigInteger balance;
+        // what the hand paid back, the reserved stake included -- zero for a lost bet
+        public final BigInteger payout;
+
+        Settlement(DealStatus status, BigInteger balance, BigInteger payout) {
+            this.status = status;
+            this.balance = balance;
+            this.payout = payout;
+        }
+    }
+
+    private void timedMultiDeal(String[] input, String requestId, StringBuilder out) {
+        long start = System.nanoTime();
+        Metrics.DealEvent event = new Metrics.DealEvent();
+        event.begin();
+        int dealt = multiDeal(input[4], input[2], new BigInteger(input[3]), Integer.parseInt(input[1]), requestId, out);
+        Metrics.Timer.DEAL.record(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableOf(input[4]).id();
+            event.hands = dealt;
+            event.status = (dealt < 0) ? DealStatus.INSUFFICIENT.name()
+                    : (dealt < Integer.parseInt(input[1])) ? DealStatus.NO_CARDS.name() : DealStatus.SETTLED.name();
+            event.commit();
+        }
+    }
+
+    // deal one hand into the given Hand and settle the bet
+    // side is "B", "P" or "D" (tie)
+    public Settlement deal(String username, String side, BigInteger betAmount, Hand hand) {
+        return deal(username, side, betAmount, hand, null);
+    }
+
+    // with a request id a retry gets the settlement (and the cards) of the first attempt
+    // instead of a second hand
+    public Settlement deal(String username, String side, BigInteger betAmount, Hand hand, String requestId) {
+        checkStake(betAmount);
+        if (requestId == null) {
+            return timedDeal(username, side, betAmount, hand, null);
+        }
+        Replay replay = recentDeals.run(requestKey(username, requestId),
+                () -> new Replay(timedDeal(username, side, betAmount, hand, requestId), hand));
+        hand.copyFrom(replay.hand);
+        return replay.settlement;
+    }
+
+    // a zero stake would be reserved and settled for nothing, and a negative one pays on a loss
+    // thrown before anything is reserved, the handler answers "Invalid command."
+    private static void checkStake(BigInteger betAmount) {
+        if (betAmount.signum() <= 0) {
+            throw new IllegalArgumentException("bet amount must be positive: " + betAmount);
+        }
+    }
+
+    private Settlement timedDeal(String username, String side, BigInteger betAmount, Hand hand, String requestId) {
+        long start = System.nanoTime();
+        Metrics.DealEvent event = new Metrics.DealEvent();
+        event.begin();
+        Settlement settlement = settle(username, side, betAmount, hand, requestId);
+        Metrics.Timer.DEAL.record(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableOf(username).id();
+            event.hands = (settlement.status == DealStatus.SETTLED) ? 1 : 0;
+            event.status = settlement.status.name();
+            event.commit();
+        }
+        return settlement;
+    }
+
+    private Settlement settle(String username, String side, BigInteger betAmount, Hand hand, String requestId) {
+        if (unfit(username, betAmount) != null) {
+            return new Settlement(DealStatus.UNSUPPORTED, accounts.get(username), BigInteger.ZERO);
+        }
+        // the stake is taken up front so two deals for the same user can't both spend it
+        if (!accounts.reserve(username, betAmount)) {
+            return new Settlement(DealStatus.INSUFFICIENT, accounts.get(username), BigInteger.ZERO);
+        }
+        Table table = tableOf(username);
+        List<Runnable> checkpoints = new ArrayList<>(1);
+        boolean dealt;
+        try {
+            dealt = table.call(() -> dealCards(table, hand, checkpoints));
+        } catch (RuntimeException e) {
+            // the table is closed for shutdown -- the stake was never played
+            accounts.release(username, betAmount);
+            throw e;
+        }
+        awaitCheckpoints(checkpoints);
+        if (!dealt) {
+            // nothing dealt -- give the stake back
+            return new Settlement(DealStatus.NO_CARDS, accounts.release(username, betAmount), BigInteger.ZERO);
+        }
+        BigInteger payout = payout(hand, side, betAmount);
+        SettlementRecord record = SettlementRecord.of(false, username, requestId, table.id(), side, betAmount, payout,
+                hand);
+        BigInteger balance = accounts.settle(username, payout, List.of(record));
+        Log.audit(() -> auditLine(table, username, side, betAmount, hand, payout, balance) + handId(record));
+        return new Settlement(DealStatus.SETTLED, balance, payout);
+    }
+
+    // why the store could not settle the best a stake can win, null if it can -- asked before
+    // the stake is reserved, so a hand the store would refuse is never dealt
+    private String unfit(String username, BigInteger stake) {
+        String unfit = accounts.unfit(username, BigInteger.ZERO);
+        if (unfit != null) {
+            return unfit;
+        }
+        BigInteger most = stake.multiply(BigInteger.valueOf(Payouts.STANDARD.maxReturned() - 1));
+        return accounts.unfit(username, accounts.get(username).add(most));
+    }
+
+    // " hand=<id>" when the journal numbers hands
+    private static String handId(SettlementRecord record) {
+        return (record.seq > 0) ? " hand=" + record.seq : "";
+    }
+
+    // one settled hand for the audit log -- balance is null inside a multideal, where it is
+    // only known once the whole batch is settled
+    // never from the table's loop: Log.audit() waits when the log is behind
+    private static String auditLine(Table table, String username, String side, BigInteger betAmount, Hand hand,
+            BigInteger payout, BigInteger balance) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("table=").append(table.id()).append(" user=").append(username).append(" side=").append(side)
+                .append(" bet=").append(betAmount).append(' ');
+        hand.audit(sb);
+        sb.append(" paid=").append(payout);
+        if (balance != null) {
+            sb.append(" balance=").append(balance);
+        }
+        return sb.toString();
+    }
+
+    // what goes back to the player, stake included
+    static BigInteger payout(Hand hand, String side, BigInteger betAmount) {
+        // anything other than a single "B", "P" or "D" never wins
+        char s = (side.length() == 1) ? side.charAt(0) : '?';
+        return betAmount.multiply(BigInteger.valueOf(Payouts.STANDARD.returned(hand, s)));
+    }
+
+    // "P|1|10|3,B|10|10|7 - Banker wins with 7 points" and what happened to the bet
+    private static void describe(Settlement settlement, String side, Hand hand, StringBuilder out) {
+        if (settlement.status == DealStatus.INSUFFICIENT) {
+            out.append("Insufficient amount").append("\n");
+            return;
+        }
+        if (settlement.status == DealStatus.NO_CARDS) {
+            out.append("Not enough cards to deal.").append("\n");
+            return;
+        }
+        if (settlement.status == DealStatus.UNSUPPORTED) {
+            out.append(UNSUPPORTED_DEAL).append("\n");
+            return;
+        }
+        hand.describe(out);
+        out.append("\n");
+
+        BigInteger balance = settlement.balance;
+        if (hand.outcome == Hand.Outcome.DRAW) {
+            if (side.equals("D")) {
+                out.append("It's a 'Tie' bet. Balance updated: " + balance).append("\n");
+            } else {
+                out.append("It's a draw. Bet refunded.").append("\n");
+            }
+        } else if (settlement.payout.signum() == 0) {
+            out.append("Bet lost. Balance remains: " + balance).append("\n");
+        } else if (!hand.isSixCardRule()) {
+            out.append("Bet won. Balance updated: " + balance).append("\n");
+        }
+    }
+
+    public Table tableOf(String username) {
+        return seats.getOrDefault(username, defaultTable);
+    }
+
+    // false if the shoe ran out
+    // runs on the table's loop, adds the wait for the shoe's checkpoint to checkpoints
+    private static boolean dealCards(Table table, Hand hand, List<Runnable> checkpoints) {
+        Shoe shoe = table.shoeForHand();
+
+        // the loop is the only writer, so the lock is never contended -- it is kept so the
+        // shoe stays safe for anything that reads it from outside
+        boolean dealt;
+        long ticket;
+        shoe.lock();
+        try {
+            if (shoe.remaining() < 4) {
+                return false;
+            }
+            dealt = hand.deal(shoe);
+            // record the consumed position in the shoe log
+            ticket = shoe.checkpoint();
+        } finally {
+            shoe.unlock();
+        }
+        checkpoints.add(() -> shoe.awaitCheckpoint(ticket));
+        if (!dealt) {
+            return false;
+        }
+
+        table.record(new Hand.Outcome[] { hand.outcome }, 1);
+        if (table.broadcast().hasWatchers()) {
+            StringBuilder text = new StringBuilder();
+            hand.describe(text);
+            publish(table, 1, text.append("\n"));
+        }
+        return true;
+    }
+
+    // the forces behind the shoe checkpoints of a deal, waited for after the table's loop has
+    // moved on -- a mapped shoe under "group" then forces the hands of every waiting deal at once
+    private static void awaitCheckpoints(List<Runnable> checkpoints) {
+        for (Runnable checkpoint : checkpoints) {
+            checkpoint.run();
+        }
+    }
+
+    // watch [table]
+    // subscribes a connection to the table's results, the first update waiting for it is the
+    // road so far -- taken on the loop, so no hand is missed or seen twice
+    // null for an unknown table
+    Broadcast.Watcher watch(String tableId, Runnable ready) {
+        Metrics.command("watch");
+        Table table = (tableId == null) ? defaultTable : tables.get(tableId);
+        if (table == null) {
+            Metrics.error("watch");
+            return null;
+        }
+        return table.call(() -> table.broadcast().subscribe(Broadcast.encode(roadUpdate(table,
+                "Watching table " + table.id() + ", " + table.stats().hands() + " hands. Send unwatch to stop.")),
+                ready));
+    }
+
+    // loop only -- the hands just recorded to the table's watchers, hands is their text
+    // one line each
+    private static void publish(Table table, int count, CharSequence hands) {
+        if (!table.broadcast().hasWatchers()) {
+            return;
+        }
+        long last = table.stats().hands();
+        StringBuilder update = new StringBuilder("Table " + table.id() + " - ")
+                .append((count == 1) ? "hand " + last : "hands " + (last - count + 1) + "-" + last).append("\n")
+                .append(hands);
+        table.broadcast().publish(Broadcast.encode(roadUpdate(table, update)),
+                () -> Broadcast.encode(roadUpdate(table, "Table " + table.id() + " - resync, " + last + " hands")));
+    }
+
+    // loop only -- the heading, the big road so far and the empty line that ends an update
+    private static StringBuilder roadUpdate(Table table, CharSequence heading) {
+        StringBuilder update = new StringBuilder(heading);
+        if (update.charAt(update.length() - 1) != '\n') {
+            update.append("\n");
+        }
+        update.append("Big road: ");
+        table.stats().bigRoad(update);
+        return update.append("\n");
+    }
+
+    // multideal <n> <side> <betamount> <username>
+    // deals n hands in one task on the table's loop, records them in one go and settles
+    // the whole lot with one reserve of every stake and one settle of every hand
+    // returns the hands dealt, -1 if the balance did not cover them or the store could not keep
+    // what they might win
+    private int multiDeal(String username, String side, BigInteger betAmount, int count, String requestId,
+            StringBuilder out) {
+        if (count < 1 || count > MAX_MULTIDEAL) {
+            throw new IllegalArgumentException("multideal count out of range: " + count);
+        }
+        checkStake(betAmount);
+        BigInteger stake = betAmount.multiply(BigInteger.valueOf(count));
+        if (unfit(username, stake) != null) {
+            out.append(UNSUPPORTED_DEAL).append("\n");
+            return -1;
+        }
+        if (!accounts.reserve(username, stake)) {
+            out.append("Insufficient amount").append("\n");
+            return -1;
+        }
+
+        Hand hand = hands.get();
+        BigInteger[] payout = { BigInteger.ZERO };
+        List<SettlementRecord> records = new ArrayList<>();
+        // built on the loop while the hand is at hand, logged after it -- the audit queue may
+        // make its caller wait, and the loop must not
+        List<String> audit = Log.auditing() ? new ArrayList<>() : null;
+        Table table = tableOf(username);
+        List<Runnable> checkpoints = new ArrayList<>(1);
+        int dealt;
+        try {
+            dealt = table.call(() -> {
+                int from = out.length();
+                Hand.Outcome[] outcomes = new Hand.Outcome[count];
+                int n = 0;
+                // one pass per shoe, the batch carries on in the next shoe at the cut card
+                while (n < count) {
+                    Shoe shoe = table.shoeForHand();
+                    int before = n;
+                    long ticket;
+                    shoe.lock();
+                    try {
+                        while (n < count && shoe.remaining() >= 4 && !table.cutCardReached(shoe)
+                                && hand.deal(shoe)) {
+                            outcomes[n++] = hand.outcome;
+                            hand.describe(out);
+                            out.append("\n");
+                            BigInteger paid = payout(hand, side, betAmount);
+                            payout[0] = payout[0].add(paid);
+                            records.add(SettlementRecord.of(true, username, requestId, table.id(), side, betAmount,
+                                    paid, hand));
+                            if (audit != null) {
+                                audit.add(auditLine(table, username, side, betAmount, hand, paid, null));
+                            }
+                        }
+                        // record the consumed position in the shoe log
+                        ticket = shoe.checkpoint();
+                    } finally {
+                        shoe.unlock();
+                    }
+                    checkpoints.add(() -> shoe.awaitCheckpoint(ticket));
+                    if (n == before) {
+                        // out of cards and no fresh shoe
+                        break;
+                    }
+                }
+                table.record(outcomes, n);
+                if (n > 0) {
+                    // the same lines the player gets
+                    publish(table, n, out.subSequence(from, out.length()));
+                }
+                return n;
+            });
+        } catch (RuntimeException e) {
+            // the table is closed for shutdown -- no stake was played
+            accounts.release(username, stake);
+            throw e;
+        }
+        awaitCheckpoints(checkpoints);
+
+        // stakes for hands that were never dealt go back
+        BigInteger refund = betAmount.multiply(BigInteger.valueOf(count - dealt));
+        BigInteger credit = payout[0].add(refund);
+        BigInteger balance = accounts.settle(username, credit, records);
+        if (audit != null) {
+            for (int i = 0; i < audit.size(); i++) {
+                String line = audit.get(i) + handId(records.get(i));
+                Log.audit(() -> line);
+            }
+        }
+        Log.audit(() -> "table=" + table.id() + " user=" + username + " multideal=" + dealt + "/" + count + " paid="
+                + credit + " balance=" + balance);
+        if (dealt < count) {
+            out.append("Not enough cards to deal. " + dealt + " of " + count + " hands dealt.").append("\n");
+        }
+        out.append("Dealt " + dealt + " hands. Balance updated: " + balance).append("\n");
+        return dealt;
+    }
+}
@@ -0,0 +1,151 @@
+package baccarat.server;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// every change is queued as "<username>,<balance>" and a background writer appends
+// whatever has queued up to the journal with a single force() per batch
+// at startup the journal is replayed (last line per user wins) and compacted
+// a failed write or force fails the journal, as in SettlementJournal: the writer stops (a line
+// after a torn one would replay as garbage) and every later change throws -- the batch that
+// failed was already answered, write-behind has no one left to tell
+class BalanceJournal implements BalanceLog {
+    private static final int MAX_BATCH = 1024;
+
+    private final Map<String, BigInteger> balances;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final FileChannel journal;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failed;
+
+    // fills balances from the journal
+    BalanceJournal(File journalFile, Map<String, BigInteger> balances) throws IOException {
+        this(journalFile, balances, path -> FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    BalanceJournal(File journalFile, Map<String, BigInteger> balances, BalanceLog.Opener opener)
+            throws IOException {
+        this.balances = balances;
+        replay(journalFile);
+        compact(journalFile);
+        journal = opener.open(journalFile.toPath());
+        writer = new Thread(this::drain, "account-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // thrown inside the store's compute(), so the balance is left alone
+    @Override
+    public long record(String username, BigInteger balance) {
+        checkFailed();
+        pending.add(username + "," + balance + "\n");
+        return 0;
+    }
+
+    // nothing to wait for, but a change queued just as the journal failed hears of it here
+    @Override
+    public void await(long ticket) {
+        checkFailed();
+    }
+
+    private void checkFailed() {
+        if (failed != null) {
+            throw new UncheckedIOException("Account journal failed", failed);
+        }
+    }
+
+    private void replay(File journalFile) throws IOException {
+        replay(journalFile, balances);
+    }
+
+    // last line per user wins
+    static void replay(File journalFile, Map<String, BigInteger> balances) throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int idx = line.lastIndexOf(',');
+                if (idx < 0) {
+                    continue;
+                }
+                try {
+                    balances.put(line.substring(0, idx), new BigInteger(line.substring(idx + 1).trim()));
+                } catch (NumberFormatException e) {
+                    // torn last line after a crash
+                }
+            }
+        }
+    }
+
+    // rewrite the journal with one line per user so replay stays short
+    private void compact(File journalFile) throws IOException {
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(tmp, false))) {
+            for (Map.Entry<String, BigInteger> entry : balances.entrySet()) {
+                bw.write(entry.getKey() + "," + entry.getValue());
+                bw.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder sb = new StringBuilder();
+        while (!closed || !pending.isEmpty()) {
+            try {
+                String first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+
+                for (String entry : batch) {
+                    sb.append(entry);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) {
+                    journal.write(buf);
+                }
+                // one fsync for the whole batch
+                journal.force(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                Log.error("Error writing account journal, " + batch.size() + " changes not saved: " + e.getMessage());
+                failed = e;
+                return;
+            } finally {
+                batch.clear();
+                sb.setLength(0);
+            }
+        }
+    }
+
+    // flush what is still queued and close the journal
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("Error closing account journal: " + e.getMessage());
+        }
+    }
+}
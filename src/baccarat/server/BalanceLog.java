@@ -0,0 +1,49 @@
+package baccarat.server;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+// where AccountStore sends every balance change after making it in memory
+interface BalanceLog {
+    // opens a journal for appending -- a test can hand in a channel that fails
+    interface Opener {
+        FileChannel open(Path path) throws IOException;
+    }
+
+    // called inside compute() for the user, so one user's changes arrive in order
+    // returns a ticket for await()
+    long record(String username, BigInteger balance);
+
+    // the stake of a bet taken, or given back unplayed, ahead of settlement
+    // a log that keeps settlements rather than balances skips these
+    default long reserved(String username, BigInteger balance) {
+        return record(username, balance);
+    }
+
+    // hands settled for the user with the balance after crediting them, inside compute()
+    // changed is false when nothing was credited (the hands were lost)
+    default long settled(String username, BigInteger balance, boolean changed, List<SettlementRecord> records) {
+        return changed ? record(username, balance) : 0;
+    }
+
+    // why this log could not keep the balance for the user, null if it can
+    // asked before a login or a deal, so no cards are dealt for a hand it would refuse to settle
+    default String unfit(String username, BigInteger balance) {
+        return null;
+    }
+
+    // settled hands with a request id read back at startup, oldest first
+    default List<SettlementRecord> recovered() {
+        return List.of();
+    }
+
+    // wait until the change behind the ticket is as durable as this log promises
+    // called after compute() has let go of the user
+    default void await(long ticket) {
+    }
+
+    void close();
+}
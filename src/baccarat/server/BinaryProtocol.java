@@ -0,0 +1,159 @@
+package baccarat.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// length-prefixed binary protocol, chosen by sending the line "binary" as the first line
+// every frame is: int length (opcode + body), byte opcode, body
+// strings are a short length and UTF-8 bytes, amounts are a byte length and
+// BigInteger.toByteArray() bytes
+//
+// requests
+//   LOGIN   username, balance
+//   BET     username, amount
+//   DEAL    byte side ('B', 'P', 'D'), amount, username, optionally a request id string
+//   EXIT    (empty)
+//   JOIN    table, username
+// responses
+//   MESSAGE      string -- the same text the line protocol would send
+//   DEAL_RESULT  byte status, byte outcome, byte flags, byte player points, byte banker points,
+//                byte player count, 3 player cards, byte banker count, 3 banker cards,
+//                then the balance as an amount
+//                (cards are encoded as in Cards, unused slots are -1)
+public final class BinaryProtocol {
+    public static final String HANDSHAKE = "binary";
+    public static final int MAX_FRAME = 4096;
+
+    public static final byte LOGIN = 1;
+    public static final byte BET = 2;
+    public static final byte DEAL = 3;
+    public static final byte EXIT = 4;
+    public static final byte JOIN = 5;
+
+    public static final byte MESSAGE = (byte) 0x81;
+    public static final byte DEAL_RESULT = (byte) 0x82;
+
+    // DEAL_RESULT status is BaccaratGame.DealStatus.ordinal(), outcome is Hand.Outcome.ordinal() or -1
+    public static final int FLAG_SIX_CARD_RULE = 1;
+    public static final int FLAG_WON = 2;
+
+    private BinaryProtocol() {
+    }
+
+    public static boolean isExit(ByteBuffer request) {
+        return request.get(request.position()) == EXIT;
+    }
+
+    // request holds one frame without its length prefix
+    // returns a complete response frame, length prefix included, ready to write
+    public static ByteBuffer handle(BaccaratGame game, Hand hand, ByteBuffer request) throws IOException {
+        try {
+            return dispatch(game, hand, request);
+        } catch (UncheckedIOException e) {
+            Log.error("Error handling command: " + e.getMessage() + ": " + e.getCause().getMessage());
+            return message(BaccaratGame.NOT_SAVED + "\n");
+        } catch (RuntimeException e) {
+            // truncated body or a bad length or amount
+            return message("Invalid command.\n");
+        }
+    }
+
+    private static ByteBuffer dispatch(BaccaratGame game, Hand hand, ByteBuffer request) throws IOException {
+        byte opcode = request.get();
+        switch (opcode) {
+            case LOGIN: {
+                String username = getString(request);
+                BigInteger balance = getAmount(request);
+                return message(game.handle(new String[] { "login", username, balance.toString() }));
+            }
+            case BET: {
+                String username = getString(request);
+                BigInteger amount = getAmount(request);
+                return message(game.handle(new String[] { "bet", amount.toString(), username }));
+            }
+            case DEAL: {
+                String side = String.valueOf((char) request.get());
+                BigInteger amount = getAmount(request);
+                String username = getString(request);
+                String requestId = request.hasRemaining() ? getString(request) : null;
+                BaccaratGame.Settlement settlement = game.deal(username, side, amount, hand, requestId);
+                // bypasses handle(), so counted here
+                Metrics.command("deal");
+                if (settlement.status != BaccaratGame.DealStatus.SETTLED) {
+                    Metrics.error("deal");
+                }
+                return dealResult(settlement, hand);
+            }
+            case EXIT:
+                return message(game.handle(new String[] { "exit" }));
+            case JOIN: {
+                String table = getString(request);
+                String username = getString(request);
+                return message(game.handle(new String[] { "join", table, username }));
+            }
+            default:
+                return message("Invalid command.\n");
+        }
+    }
+
+    static ByteBuffer message(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 2 + bytes.length);
+        frame.putInt(1 + 2 + bytes.length);
+        frame.put(MESSAGE);
+        frame.putShort((short) bytes.length);
+        frame.put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer dealResult(BaccaratGame.Settlement settlement, Hand hand) {
+        byte[] balance = settlement.balance.toByteArray();
+        int body = 1 + 5 + 4 + 4 + 1 + balance.length;
+        ByteBuffer frame = ByteBuffer.allocate(4 + body);
+        frame.putInt(body);
+        frame.put(DEAL_RESULT);
+        frame.put((byte) settlement.status.ordinal());
+
+        boolean settled = settlement.status == BaccaratGame.DealStatus.SETTLED;
+        int flags = 0;
+        if (settled && hand.isSixCardRule()) {
+            flags |= FLAG_SIX_CARD_RULE;
+        }
+        if (settled && hand.outcome != Hand.Outcome.DRAW && settlement.payout.signum() > 0) {
+            flags |= FLAG_WON;
+        }
+        frame.put(settled ? (byte) hand.outcome.ordinal() : -1);
+        frame.put((byte) flags);
+        frame.put(settled ? (byte) hand.playerPoints : 0);
+        frame.put(settled ? (byte) hand.bankerPoints : 0);
+        putCards(frame, hand.playerCards, settled ? hand.playerCount : 0);
+        putCards(frame, hand.bankerCards, settled ? hand.bankerCount : 0);
+        frame.put((byte) balance.length);
+        frame.put(balance);
+        frame.flip();
+        return frame;
+    }
+
+    private static void putCards(ByteBuffer frame, byte[] cards, int count) {
+        frame.put((byte) count);
+        for (int i = 0; i < 3; i++) {
+            frame.put(i < count ? cards[i] : -1);
+        }
+    }
+
+    public static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static BigInteger getAmount(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.get() & 0xff];
+        buf.get(bytes);
+        return new BigInteger(bytes);
+    }
+}
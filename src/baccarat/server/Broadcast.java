@@ -0,0 +1,120 @@
+package baccarat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// live results of one table for the connections watching it
+// every update is encoded once on the table's loop into a read-only buffer, and each watcher
+// is handed a duplicate of it -- same bytes, its own position -- so a thousand watchers cost
+// a thousand queue offers, not a thousand encodings
+// each watcher has a small bounded queue: the loop never waits for a watcher, one that falls
+// behind loses what is queued and gets a resync (hands dealt and the road so far) instead
+// updates are text ending in an empty line, like a session response
+final class Broadcast {
+    // updates a watcher may have waiting before it is resynced
+    static final int QUEUE = 64;
+
+    private static final AtomicInteger watching = new AtomicInteger();
+    private static final LongAdder published = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder resyncs = new LongAdder();
+
+    private final CopyOnWriteArrayList<Watcher> watchers = new CopyOnWriteArrayList<>();
+
+    // one connection watching a table
+    // ready is called after an update is queued, from the table's loop, and may be null if
+    // the connection polls instead
+    static final class Watcher {
+        private final Broadcast broadcast;
+        private final ArrayBlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE);
+        private final Runnable ready;
+
+        private Watcher(Broadcast broadcast, Runnable ready) {
+            this.broadcast = broadcast;
+            this.ready = ready;
+        }
+
+        // stop watching, from any thread
+        void close() {
+            broadcast.unsubscribe(this);
+        }
+
+        // the next update, or null when none is waiting
+        ByteBuffer poll() {
+            return queue.poll();
+        }
+
+        ByteBuffer poll(long millis) throws InterruptedException {
+            return queue.poll(millis, TimeUnit.MILLISECONDS);
+        }
+
+        // loop only
+        private void offer(ByteBuffer update, Supplier<ByteBuffer> resync) {
+            if (!queue.offer(update.duplicate())) {
+                // too slow -- what it has not read yet is stale anyway
+                dropped.add(queue.size());
+                queue.clear();
+                queue.offer(resync.get().duplicate());
+                resyncs.increment();
+            }
+            if (ready != null) {
+                ready.run();
+            }
+        }
+    }
+
+    static ByteBuffer encode(CharSequence text) {
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    boolean hasWatchers() {
+        return !watchers.isEmpty();
+    }
+
+    // loop only, so the first update is the one right after the snapshot
+    Watcher subscribe(ByteBuffer snapshot, Runnable ready) {
+        Watcher watcher = new Watcher(this, ready);
+        watcher.queue.offer(snapshot);
+        watchers.add(watcher);
+        watching.incrementAndGet();
+        if (ready != null) {
+            ready.run();
+        }
+        return watcher;
+    }
+
+    private void unsubscribe(Watcher watcher) {
+        if (watchers.remove(watcher)) {
+            watching.decrementAndGet();
+        }
+    }
+
+    // loop only -- resync is encoded at most once, and only if some watcher needs it
+    void publish(ByteBuffer update, Supplier<ByteBuffer> resync) {
+        ByteBuffer[] shared = new ByteBuffer[1];
+        Supplier<ByteBuffer> once = () -> (shared[0] != null) ? shared[0] : (shared[0] = resync.get());
+        for (Watcher watcher : watchers) {
+            watcher.offer(update, once);
+        }
+        published.increment();
+    }
+
+    static void report(StringBuilder out) {
+        out.append(String.format("%-14s %10s %10s %10s %10s", "watch", "watching", "updates", "dropped", "resyncs"))
+                .append("\n");
+        out.append(String.format("%-14s %10d %10d %10d %10d", "", watching.get(), published.sum(), dropped.sum(),
+                resyncs.sum())).append("\n");
+    }
+
+    static void reset() {
+        published.reset();
+        dropped.reset();
+        resyncs.reset();
+    }
+}
@@ -0,0 +1,83 @@
+package baccarat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// bounded lock-free ring of bytes, many producers and a single consumer
+// every slot carries a sequence number (Vyukov's bounded queue): a producer claims a slot
+// with one CAS on the tail and publishes it by bumping the slot's sequence, the consumer
+// only reads slots whose sequence says they are published
+class ByteRing {
+    private final byte[] values;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only touched by the consumer
+    private long head;
+
+    // capacity is rounded up to a power of two
+    ByteRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        values = new byte[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // false if the ring is full
+    boolean offer(byte value) {
+        while (true) {
+            long pos = tail.get();
+            int slot = (int) pos & mask;
+            long seq = sequences.get(slot);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    values[slot] = value;
+                    // the ordered write publishes the value to the consumer
+                    sequences.lazySet(slot, pos + 1);
+                    return true;
+                }
+            } else if (seq < pos) {
+                // the consumer has not freed this slot yet
+                return false;
+            }
+            // another producer took the slot, try the next one
+        }
+    }
+
+    // spins, then parks briefly, until there is room -- the writer is never far behind
+    void put(byte value) {
+        int spins = 0;
+        while (!offer(value)) {
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    // consumer only -- copies up to dst.length - offset published values into dst
+    // returns how many were copied
+    int drainTo(byte[] dst, int offset) {
+        int n = 0;
+        while (offset + n < dst.length) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            dst[offset + n++] = values[slot];
+            // hand the slot back to the producers one lap later
+            sequences.lazySet(slot, head + values.length);
+            head++;
+        }
+        return n;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+}
@@ -0,0 +1,85 @@
+package baccarat.server;
+
+import java.util.random.RandomGenerator;
+
+// cards are a single byte: (rank - 1) * 4 + (suit - 1), so 0..51
+// rank 1..13 (11 - Joker, 12 - Queen, 13 - King), suit 1..4
+// the text form "10.3" is still used for old cards.db files and for display
+public final class Cards {
+    public static final int DECK_SIZE = 52;
+
+    // baccarat value of every card -- picture cards count as 10
+    private static final byte[] VALUE = new byte[DECK_SIZE];
+
+    // hand total after taking away the 10 and 20 milestones, indexed by the raw sum (max 3 x 10)
+    private static final byte[] POINTS = new byte[31];
+
+    static {
+        for (int card = 0; card < DECK_SIZE; card++) {
+            VALUE[card] = (byte) Math.min(rank((byte) card), 10);
+        }
+        for (int sum = 0; sum < POINTS.length; sum++) {
+            int points = sum;
+            if (points >= 10 && points < 20) {
+                points -= 10;
+            }
+            if (points >= 20) {
+                points -= 20;
+            }
+            POINTS[sum] = (byte) points;
+        }
+    }
+
+    private Cards() {
+    }
+
+    public static byte encode(int rank, int suit) {
+        return (byte) ((rank - 1) * 4 + (suit - 1));
+    }
+
+    public static int rank(byte card) {
+        return card / 4 + 1;
+    }
+
+    public static int suit(byte card) {
+        return card % 4 + 1;
+    }
+
+    public static int value(byte card) {
+        return VALUE[card];
+    }
+
+    public static int points(int sum) {
+        return POINTS[sum];
+    }
+
+    // "10.3" -> card
+    public static byte parse(String text) {
+        int idx = text.indexOf('.');
+        return encode(Integer.parseInt(text.substring(0, idx).trim()), Integer.parseInt(text.substring(idx + 1).trim()));
+    }
+
+    public static String toString(byte card) {
+        return rank(card) + "." + suit(card);
+    }
+
+    // numDeck full decks, shuffled
+    public static byte[] shuffled(int numDeck, RandomGenerator random) {
+        byte[] cards = new byte[numDeck * DECK_SIZE];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = (byte) (i % DECK_SIZE);
+        }
+        shuffle(cards, random);
+        return cards;
+    }
+
+    // Fisher-Yates, in place
+    public static void shuffle(byte[] cards, RandomGenerator random) {
+        for (int i = cards.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte tmp = cards[i];
+            cards[i] = cards[j];
+            cards[j] = tmp;
+        }
+    }
+}
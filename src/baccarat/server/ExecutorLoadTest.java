@@ -0,0 +1,113 @@
+package baccarat.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+// compares hand throughput of the executor strategies against an in-process blocking server
+// every client holds a session open and deals back to back, so a fixed pool smaller than
+// the number of clients leaves the extra clients waiting in the queue
+//
+// usage: java -cp classes baccarat.server.ExecutorLoadTest [clients] [hands per client]
+// each run keeps its cards.log, accounts.journal and game history in a temp directory of its
+// own, deleted afterwards, so the files of a server in the current directory are left alone
+public class ExecutorLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int hands = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        // the server logs every hand, keep that out of the report
+        Log.setLevel(Log.Level.ERROR);
+        Log.setAudit(false);
+
+        System.out.printf("%d clients x %d hands%n", clients, hands);
+        System.out.printf("%-10s %12s %12s%n", "executor", "hands/s", "elapsed ms");
+        for (String executor : new String[] { "fixed:10", "cached", "virtual" }) {
+            long[] result = run(executor, clients, hands);
+            System.out.printf("%-10s %12d %12d%n", executor, result[0], result[1]);
+        }
+    }
+
+    // returns { hands per second, elapsed millis }
+    private static long[] run(String executor, int clients, int hands) throws Exception {
+        // six cards at most per hand, plus one spare deck
+        int decks = clients * hands * 6 / 52 + 1;
+        File dir = Files.createTempDirectory("executor-load").toFile();
+        Shoe shoe = new Shoe(ServerApp.shuffledCards(decks), new File(dir, "cards.log"));
+        AccountStore accounts = AccountStore.open(new File(dir, "accounts.journal"));
+        GameHistory history = GameHistory.open(new File(dir, "game_history.csv"));
+        BaccaratGame game = new BaccaratGame(shoe, accounts, history);
+        ExecutorService executorService = ServerApp.createExecutor(executor, 10);
+        ServerSocket server = new ServerSocket(0);
+
+        Thread acceptor = new Thread(() -> {
+            try {
+                ServerApp.serve(server, game, executorService);
+            } catch (IOException e) {
+                // server socket closed at the end of the run
+            }
+        });
+        acceptor.start();
+
+        ExecutorService players = Executors.newFixedThreadPool(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> done = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            String username = "load" + i;
+            done.add(players.submit(() -> play(server.getLocalPort(), username, hands, start)));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        int dealt = 0;
+        for (Future<Integer> f : done) {
+            dealt += f.get();
+        }
+        long elapsedNanos = System.nanoTime() - begin;
+
+        players.shutdown();
+        server.close();
+        executorService.shutdownNow();
+        acceptor.join();
+        accounts.close();
+        history.close();
+        shoe.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        return new long[] { dealt * 1_000_000_000L / Math.max(1, elapsedNanos), elapsedMillis };
+    }
+
+    private static int play(int port, String username, int hands, CountDownLatch start) throws Exception {
+        start.await();
+        try (Socket sock = new Socket("localhost", port)) {
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(sock.getOutputStream()));
+            BufferedReader br = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+
+            send(bw, br, "session");
+            send(bw, br, "login|" + username + "|1000000000");
+            for (int i = 0; i < hands; i++) {
+                send(bw, br, "deal|B|1|" + username);
+            }
+            send(bw, br, "exit");
+        }
+        return hands;
+    }
+
+    // write one command and read its response up to the terminating empty line
+    private static void send(BufferedWriter bw, BufferedReader br, String command) throws IOException {
+        bw.write(command);
+        bw.newLine();
+        bw.flush();
+        String line;
+        while ((line = br.readLine()) != null && !line.isEmpty()) {
+            // discard
+        }
+    }
+}
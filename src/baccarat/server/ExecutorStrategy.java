@@ -0,0 +1,66 @@
+package baccarat.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// how connection handlers (or NIO workers) get their threads
+//   fixed   -- bounded pool, extra connections wait in a bounded queue and are rejected
+//              (RejectedExecutionException) once it is full
+//   cached  -- one platform thread per busy connection, reused when idle
+//   virtual -- one virtual thread per connection (JDK 21+)
+public enum ExecutorStrategy {
+    FIXED, CACHED, VIRTUAL;
+
+    // --executor=fixed:10, --executor=cached, --executor=virtual
+    public static ExecutorStrategy parse(String name) {
+        int idx = name.indexOf(':');
+        String base = (idx < 0) ? name : name.substring(0, idx);
+        return valueOf(base.trim().toUpperCase());
+    }
+
+    // thread count after "fixed:", or the default when none is given
+    public static int parseThreads(String name, int defaultThreads) {
+        int idx = name.indexOf(':');
+        return (idx < 0) ? defaultThreads : Integer.parseInt(name.substring(idx + 1).trim());
+    }
+
+    public ExecutorService create(int threads) {
+        return create(threads, Integer.MAX_VALUE);
+    }
+
+    // queueCapacity only applies to a fixed pool
+    public ExecutorService create(int threads, int queueCapacity) {
+        switch (this) {
+            case FIXED:
+                return newFixedThreadPool(threads, queueCapacity);
+            case CACHED:
+                return Executors.newCachedThreadPool();
+            case VIRTUAL:
+            default:
+                return newVirtualThreadExecutor();
+        }
+    }
+
+    static ExecutorService newFixedThreadPool(int threads, int queueCapacity) {
+        if (queueCapacity == Integer.MAX_VALUE) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+    }
+
+    // looked up reflectively so the server still builds and runs on JDK 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warn("Virtual threads need JDK 21 or later, using a cached thread pool instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package baccarat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// when in-place writes to a mapped file are forced to disk
+//   op           -- force after every write, the caller returns once its write is on disk
+//   group        -- a background thread forces whatever has been written since the last force,
+//                   callers wait for the force that covers their write (group commit)
+//   periodic:<ms> -- a background thread forces every <ms>, nobody waits, a crash can lose
+//                   up to <ms> of writes
+public final class ForcePolicy {
+    public enum Mode { OP, GROUP, PERIODIC }
+
+    public final Mode mode;
+    public final long periodMillis;
+
+    private ForcePolicy(Mode mode, long periodMillis) {
+        this.mode = mode;
+        this.periodMillis = periodMillis;
+    }
+
+    // "op", "group" or "periodic:100"
+    public static ForcePolicy parse(String text) {
+        int idx = text.indexOf(':');
+        Mode mode = Mode.valueOf(((idx < 0) ? text : text.substring(0, idx)).trim().toUpperCase());
+        long period = (idx < 0) ? 100 : Long.parseLong(text.substring(idx + 1).trim());
+        if (period <= 0) {
+            throw new IllegalArgumentException("force period must be positive: " + text);
+        }
+        return new ForcePolicy(mode, period);
+    }
+
+    // forceRange forces one write, forceAll everything written so far
+    Forcer start(String name, Forcer.Range forceRange, Runnable forceAll) {
+        return new Forcer(name, this, forceRange, forceAll);
+    }
+
+    @Override
+    public String toString() {
+        return (mode == Mode.PERIODIC) ? "periodic:" + periodMillis : mode.name().toLowerCase();
+    }
+
+    // applies a policy to one mapped file
+    static final class Forcer {
+        interface Range {
+            void force(int offset, int length);
+        }
+
+        private final ForcePolicy policy;
+        private final Range forceRange;
+        private final Runnable forceAll;
+        private final Thread thread;
+        // not synchronized -- callers wait here on the deal path, and a monitor would pin the
+        // carrier thread of a virtual thread, as in Shoe
+        private final ReentrantLock lock = new ReentrantLock();
+        // signalled when there is something to force and when a force is done
+        private final Condition changed = lock.newCondition();
+        // writes handed out and writes known to be on disk -- guarded by lock
+        private long written;
+        private long forced;
+        private volatile boolean closed;
+
+        private Forcer(String name, ForcePolicy policy, Range forceRange, Runnable forceAll) {
+            this.policy = policy;
+            this.forceRange = forceRange;
+            this.forceAll = forceAll;
+            if (policy.mode == Mode.OP) {
+                thread = null;
+                return;
+            }
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // after an in-place write, returns a ticket for await()
+        // may be called while holding a lock -- it never waits for a force except under "op"
+        long written(int offset, int length) {
+            if (policy.mode == Mode.OP) {
+                forceRange.force(offset, length);
+                return 0;
+            }
+            lock.lock();
+            try {
+                written++;
+                if (policy.mode == Mode.GROUP) {
+                    changed.signalAll();
+                }
+                return written;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // only "group" waits here, call it after letting go of any lock
+        void await(long ticket) {
+            if (policy.mode != Mode.GROUP) {
+                return;
+            }
+            lock.lock();
+            try {
+                while (forced < ticket && !closed) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void run() {
+            while (true) {
+                long target;
+                lock.lock();
+                try {
+                    if (policy.mode == Mode.GROUP) {
+                        while (written == forced && !closed) {
+                            changed.await();
+                        }
+                    } else if (!closed) {
+                        changed.await(policy.periodMillis, TimeUnit.MILLISECONDS);
+                    }
+                    if (written == forced && closed) {
+                        return;
+                    }
+                    target = written;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+                if (target > forced) {
+                    // everything written up to target goes out with this one force
+                    forceAll.run();
+                }
+                lock.lock();
+                try {
+                    forced = target;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // force what is left and stop the thread
+        void close() {
+            if (thread == null) {
+                return;
+            }
+            lock.lock();
+            try {
+                closed = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package baccarat.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// outcomes of the dealt hands, written to "game_history.csv" six to a line
+// dealing threads only put one byte per hand into a lock-free ring, a single background
+// writer drains it and appends through channels that stay open
+// a batch is written once BATCH_SIZE hands have queued up or the oldest has waited FLUSH_MILLIS
+//
+// next to the csv there is a binary file with the same name ending in ".bin": the magic
+// "BACH" and then one byte per hand (the Outcome ordinal), so reading millions of hands back
+// is one sequential read
+public class GameHistory {
+    private static final byte[] MAGIC = "BACH".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] LETTERS = { "P", "B", "D" };
+    private static final int RING_SIZE = 1 << 16;
+    private static final int BATCH_SIZE = 4096;
+    private static final long FLUSH_MILLIS = 50;
+
+    private final ByteRing ring = new ByteRing(RING_SIZE);
+    private final FileChannel csv;
+    private final FileChannel bin;
+    private final Thread writer;
+    private volatile boolean closed;
+    // hands in the binary file plus those recorded since, written or not
+    private final LongAdder hands = new LongAdder();
+
+    // hands of the csv line being filled -- writer only
+    private final List<String> gameHistory = new ArrayList<>();
+
+    private GameHistory(File csvFile) throws IOException {
+        csv = FileChannel.open(csvFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        bin = FileChannel.open(binaryFile(csvFile).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (bin.size() == 0) {
+            bin.write(ByteBuffer.wrap(MAGIC));
+        }
+        hands.add(bin.size() - MAGIC.length);
+        writer = new Thread(this::drain, "history-writer-" + csvFile.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static GameHistory open(File csvFile) throws IOException {
+        return new GameHistory(csvFile);
+    }
+
+    // "game_history.csv" -> "game_history.bin"
+    public static File binaryFile(File csvFile) {
+        String name = csvFile.getName();
+        int idx = name.lastIndexOf('.');
+        return new File(csvFile.getParentFile(), ((idx < 0) ? name : name.substring(0, idx)) + ".bin");
+    }
+
+    // every outcome in a binary history file, in the order they were dealt
+    public static Hand.Outcome[] readBinary(File binFile) throws IOException {
+        byte[] bytes = Files.readAllBytes(binFile.toPath());
+        if (bytes.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+            throw new IOException("Not a history file: " + binFile);
+        }
+        Hand.Outcome[] values = Hand.Outcome.values();
+        Hand.Outcome[] outcomes = new Hand.Outcome[bytes.length - MAGIC.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = values[bytes[MAGIC.length + i]];
+        }
+        return outcomes;
+    }
+
+    // the outcomes from hand number from on (0 is the first), for catching up after a snapshot
+    // a hand cut off part way through a write was never recorded
+    public static Hand.Outcome[] readBinary(File binFile, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(binFile.toPath(), StandardOpenOption.READ)) {
+            long start = MAGIC.length + from;
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, channel.size() - start));
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, start + buf.position()) < 0) {
+                    break;
+                }
+            }
+            Hand.Outcome[] values = Hand.Outcome.values();
+            Hand.Outcome[] outcomes = new Hand.Outcome[buf.position()];
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = values[buf.get(i)];
+            }
+            return outcomes;
+        }
+    }
+
+    // safe to call from any thread, never takes a lock
+    public void record(Hand.Outcome[] outcomes, int count) {
+        for (int i = 0; i < count; i++) {
+            ring.put((byte) outcomes[i].ordinal());
+        }
+        hands.add(count);
+    }
+
+    // every hand the history holds, counting those still queued for the file
+    public long hands() {
+        return hands.sum();
+    }
+
+    private void drain() {
+        byte[] batch = new byte[BATCH_SIZE];
+        int size = 0;
+        long oldest = 0;
+        while (true) {
+            boolean closing = closed;
+            int n = ring.drainTo(batch, size);
+            if (size == 0 && n > 0) {
+                oldest = System.nanoTime();
+            }
+            size += n;
+
+            boolean due = size > 0
+                    && (size == batch.length || closing || System.nanoTime() - oldest >= TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS));
+            if (due) {
+                write(batch, size);
+                size = 0;
+            } else if (closing && ring.isEmpty()) {
+                return;
+            } else if (n == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+    }
+
+    // writer only
+    private void write(byte[] batch, int size) {
+        long start = System.nanoTime();
+        Metrics.HistoryFlushEvent event = new Metrics.HistoryFlushEvent();
+        event.begin();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            gameHistory.add(LETTERS[batch[i]]);
+
+            // write to history if game count reaches 6
+            if (gameHistory.size() == 6) {
+                lines.append(String.join(",", gameHistory)).append("\n");
+                gameHistory.clear();
+            }
+        }
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(batch, 0, size);
+            while (buf.hasRemaining()) {
+                bin.write(buf);
+            }
+            buf = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.US_ASCII));
+            while (buf.hasRemaining()) {
+                csv.write(buf);
+            }
+        } catch (IOException e) {
+            Log.error("Error writing game history: " + e.getMessage());
+        }
+        Metrics.Timer.HISTORY_FLUSH.record(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.hands = size;
+            event.commit();
+        }
+
+        Log.debug(() -> ">>> " + gameHistory);
+    }
+
+    // write out what is still queued and close the files
+    // a csv line that has not reached 6 hands is left out, as before
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+            csv.close();
+            bin.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("Error closing game history: " + e.getMessage());
+        }
+    }
+}
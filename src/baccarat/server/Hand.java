@@ -0,0 +1,152 @@
+package baccarat.server;
+
+// one hand of player and banker cards
+// reused from hand to hand, so dealing does not allocate
+public class Hand {
+    public enum Outcome { PLAYER, BANKER, DRAW }
+
+    final byte[] playerCards = new byte[3];
+    final byte[] bankerCards = new byte[3];
+    int playerCount;
+    int bankerCount;
+    int playerPoints;
+    int bankerPoints;
+    Outcome outcome;
+
+    // deal one hand from the shoe -- the caller holds the shoe lock
+    // returns false if the shoe ran out part way through
+    public boolean deal(Shoe shoe) {
+        playerCount = 0;
+        bankerCount = 0;
+        outcome = null;
+
+        if (shoe.remaining() < 4) {
+            return false;
+        }
+
+        // initial 2 cards each
+        int playerSum = drawPlayer(shoe) + drawPlayer(shoe);
+        int bankerSum = drawBanker(shoe) + drawBanker(shoe);
+
+        // implement rules for drawing the third card
+        // draw third card if sum <= 15
+        if (playerSum <= 15) {
+            if (shoe.remaining() < 1) {
+                return false;
+            }
+            playerSum += drawPlayer(shoe);
+        }
+        if (bankerSum <= 15) {
+            if (shoe.remaining() < 1) {
+                return false;
+            }
+            bankerSum += drawBanker(shoe);
+        }
+
+        // determine result
+        playerPoints = Cards.points(playerSum);
+        bankerPoints = Cards.points(bankerSum);
+        if (playerPoints > bankerPoints) {
+            outcome = Outcome.PLAYER;
+        } else if (bankerPoints > playerPoints) {
+            outcome = Outcome.BANKER;
+        } else {
+            outcome = Outcome.DRAW;
+        }
+        return true;
+    }
+
+    public Outcome outcome() {
+        return outcome;
+    }
+
+    // the same cards, points and outcome as other
+    public void copyFrom(Hand other) {
+        restore(other.playerCards, other.playerCount, other.bankerCards, other.bankerCount);
+    }
+
+    // a hand read back from the settlement journal
+    void restore(byte[] player, int playerCount, byte[] banker, int bankerCount) {
+        this.playerCount = playerCount;
+        this.bankerCount = bankerCount;
+        int playerSum = 0;
+        int bankerSum = 0;
+        for (int i = 0; i < playerCount; i++) {
+            playerCards[i] = player[i];
+            playerSum += Cards.value(player[i]);
+        }
+        for (int i = 0; i < bankerCount; i++) {
+            bankerCards[i] = banker[i];
+            bankerSum += Cards.value(banker[i]);
+        }
+        playerPoints = Cards.points(playerSum);
+        bankerPoints = Cards.points(bankerSum);
+        if (playerPoints > bankerPoints) {
+            outcome = Outcome.PLAYER;
+        } else if (bankerPoints > playerPoints) {
+            outcome = Outcome.BANKER;
+        } else {
+            outcome = Outcome.DRAW;
+        }
+    }
+
+    private int drawPlayer(Shoe shoe) {
+        byte card = shoe.next();
+        playerCards[playerCount++] = card;
+        return Cards.value(card);
+    }
+
+    private int drawBanker(Shoe shoe) {
+        byte card = shoe.next();
+        bankerCards[bankerCount++] = card;
+        return Cards.value(card);
+    }
+
+    // banker winning on 6 points pays double
+    public boolean isSixCardRule() {
+        return outcome == Outcome.BANKER && bankerPoints == 6;
+    }
+
+    // "P|1|10|3,B|10|10|7 - Banker wins with 7 points."
+    // "cards=P:1.3|10.2,B:5.1|8.4 points=3/3 outcome=DRAW six=false" for the audit log
+    // cards as in cards.db, so a hand can be checked against the shoe
+    public void audit(StringBuilder sb) {
+        sb.append("cards=P");
+        for (int i = 0; i < playerCount; i++) {
+            sb.append((i == 0) ? ':' : '|').append(Cards.toString(playerCards[i]));
+        }
+        sb.append(",B");
+        for (int i = 0; i < bankerCount; i++) {
+            sb.append((i == 0) ? ':' : '|').append(Cards.toString(bankerCards[i]));
+        }
+        sb.append(" points=").append(playerPoints).append('/').append(bankerPoints);
+        sb.append(" outcome=").append(outcome).append(" six=").append(isSixCardRule());
+    }
+
+    public void describe(StringBuilder sb) {
+        sb.append('P');
+        for (int i = 0; i < playerCount; i++) {
+            sb.append('|').append(Cards.value(playerCards[i]));
+        }
+        sb.append(",B");
+        for (int i = 0; i < bankerCount; i++) {
+            sb.append('|').append(Cards.value(bankerCards[i]));
+        }
+        sb.append(" - ");
+        switch (outcome) {
+            case PLAYER:
+                sb.append("Player wins with ").append(playerPoints).append(" points.");
+                break;
+            case BANKER:
+                if (isSixCardRule()) {
+                    sb.append("Banker wins with '6-Card Rule'");
+                } else {
+                    sb.append("Banker wins with ").append(bankerPoints).append(" points.");
+                }
+                break;
+            default:
+                sb.append("Draw");
+                break;
+        }
+    }
+}
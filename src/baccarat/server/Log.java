@@ -0,0 +1,231 @@
+package baccarat.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// server log -- callers only put an entry on a bounded queue, one background thread formats
+// and writes them, so a handler never blocks on the console
+// lines go to stderr, stdout is left to the program's own output (and to surefire, which
+// reads a forked test JVM's stdout as its channel back to the build)
+//   2026-10-18T06:05:14.447Z INFO  [main] Waiting for connection on port 12345
+//
+// messages below the level are never built (pass a Supplier for anything that concatenates)
+// under backpressure the cheap lines go first:
+//   debug  -- 1 in SAMPLE kept once the queue is half full, dropped when it is full
+//   info   -- dropped when the queue is full
+//   warn, error and audit -- wait for room, they are never lost
+// dropped lines are counted and reported by the writer
+//
+// one audit line per settled hand, key=value pairs so it can be grepped or parsed
+//   2026-10-18T06:48:44.962Z AUDIT [pool-1-thread-1] table=main user=bob side=B bet=10
+//       cards=P:3.4|9.3|13.4,B:10.1|12.2 points=2/0 outcome=PLAYER six=false paid=0 balance=990 hand=2
+// hands of a multideal have no balance, a line after them has the batch's
+//   ... table=main user=bob multideal=2/2 paid=10 balance=980
+// audit waits for room in the queue, so it is never called from a table's loop
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 8192;
+    private static final int SAMPLE = 16;
+    private static final int BATCH_SIZE = 512;
+
+    private static volatile Level level = Level.INFO;
+    private static volatile boolean audit = true;
+
+    private static final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final AtomicLong debugSeen = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static final Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8), 1 << 16);
+    private static volatile boolean closed;
+    private static final Thread writer;
+
+    static {
+        writer = new Thread(Log::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::close));
+    }
+
+    private Log() {
+    }
+
+    private static final class Entry {
+        final String level;
+        final long millis;
+        final String thread;
+        final String message;
+
+        Entry(String level, String message) {
+            this.level = level;
+            this.millis = System.currentTimeMillis();
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+        }
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    public static void setAudit(boolean audit) {
+        Log.audit = audit;
+    }
+
+    public static boolean auditing() {
+        return audit;
+    }
+
+    public static boolean enabled(Level level) {
+        return level.compareTo(Log.level) >= 0;
+    }
+
+    // lines lost to backpressure since startup
+    public static long dropped() {
+        return dropped.sum();
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (!enabled(Level.DEBUG)) {
+            return;
+        }
+        // sampled before the message is built, a skipped line costs nothing
+        if (queue.size() >= CAPACITY / 2 && debugSeen.getAndIncrement() % SAMPLE != 0) {
+            dropped.increment();
+            return;
+        }
+        offer(new Entry("DEBUG", message.get()));
+    }
+
+    public static void info(String message) {
+        if (enabled(Level.INFO)) {
+            offer(new Entry("INFO ", message));
+        }
+    }
+
+    public static void info(Supplier<String> message) {
+        if (enabled(Level.INFO)) {
+            offer(new Entry("INFO ", message.get()));
+        }
+    }
+
+    public static void warn(String message) {
+        if (enabled(Level.WARN)) {
+            put(new Entry("WARN ", message));
+        }
+    }
+
+    public static void error(String message) {
+        put(new Entry("ERROR", message));
+    }
+
+    public static void audit(Supplier<String> fields) {
+        if (audit) {
+            put(new Entry("AUDIT", fields.get()));
+        }
+    }
+
+    private static void offer(Entry entry) {
+        if (closed) {
+            write(entry);
+        } else if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private static void put(Entry entry) {
+        if (closed) {
+            write(entry);
+            return;
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write(entry);
+        }
+    }
+
+    // writer thread -- drains in batches and flushes when the queue runs dry
+    private static void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        long reported = 0;
+        while (true) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long lost = dropped.sum();
+            if (lost > reported) {
+                batch.add(new Entry("WARN ", (lost - reported) + " log lines dropped"));
+                reported = lost;
+            }
+            synchronized (out) {
+                for (Entry entry : batch) {
+                    format(entry);
+                }
+                if (queue.isEmpty()) {
+                    flush();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static void write(Entry entry) {
+        synchronized (out) {
+            format(entry);
+            flush();
+        }
+    }
+
+    // caller holds out
+    private static void format(Entry entry) {
+        try {
+            out.write(Instant.ofEpochMilli(entry.millis).toString());
+            out.write(' ');
+            out.write(entry.level);
+            out.write(" [");
+            out.write(entry.thread);
+            out.write("] ");
+            out.write(entry.message);
+            out.write('\n');
+        } catch (IOException e) {
+            // nowhere left to report it
+        }
+    }
+
+    private static void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // nowhere left to report it
+        }
+    }
+
+    // write out what is still queued, later lines are written straight away
+    private static void close() {
+        closed = true;
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        synchronized (out) {
+            for (Entry entry : rest) {
+                format(entry);
+            }
+            flush();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package baccarat.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.*;
+
+// process-wide counters and latency histograms for the hot paths
+// recording is a few uncontended atomic adds, cheap enough to leave on all the time
+// read through the "metrics" command, the JMX bean baccarat:type=Metrics, or as JFR events
+// (category "Baccarat") in a flight recording
+public final class Metrics {
+    public enum Timer {
+        ACCEPT("accept"),
+        PARSE("parse"),
+        DEAL("deal"),
+        BALANCE_READ("balance read"),
+        BALANCE_WRITE("balance write"),
+        HISTORY_FLUSH("history flush"),
+        SHOE_PERSIST("shoe persist");
+
+        final String label;
+        final Histogram histogram = new Histogram();
+
+        Timer(String label) {
+            this.label = label;
+        }
+
+        // start is a System.nanoTime() taken before the work
+        public void record(long start) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    // per command name
+    private static final ConcurrentHashMap<String, LongAdder> commands = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    // the server's admission control, null until it starts
+    private static volatile Admission admission;
+    // null unless the server feeds a standby
+    private static volatile ReplicationLog replication;
+
+    private Metrics() {
+    }
+
+    // include the admission counters in the report
+    public static void watch(Admission admission) {
+        Metrics.admission = admission;
+    }
+
+    // include the standby's progress in the report
+    static void watch(ReplicationLog replication) {
+        Metrics.replication = replication;
+    }
+
+    public static void command(String name) {
+        commands.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    // a command that was not carried out -- bad input, insufficient balance, empty shoe
+    public static void error(String name) {
+        errors.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    // only known command names are kept apart, so junk input can't grow the maps
+    public static String commandName(String[] input) {
+        String name = input[0].toLowerCase();
+        switch (name) {
+            case "login":
+            case "bet":
+            case "deal":
+            case "multideal":
+            case "join":
+            case "tables":
+            case "history":
+            case "stats":
+            case "metrics":
+            case "watch":
+            case "exit":
+                return name;
+            default:
+                return "other";
+        }
+    }
+
+    public static void report(StringBuilder out) {
+        out.append(String.format("%-14s %10s %10s %10s %10s %10s", "timer", "count", "mean us", "p50 us", "p99 us",
+                "max us")).append("\n");
+        for (Timer timer : Timer.values()) {
+            Histogram h = timer.histogram;
+            out.append(String.format("%-14s %10d %10.1f %10.1f %10.1f %10.1f", timer.label, h.count(),
+                    h.mean() / 1000.0, h.percentile(50) / 1000.0, h.percentile(99) / 1000.0, h.max() / 1000.0))
+                    .append("\n");
+        }
+        out.append(String.format("%-14s %10s %10s", "command", "count", "errors")).append("\n");
+        for (String name : new TreeSet<>(commands.keySet())) {
+            out.append(String.format("%-14s %10d %10d", name, commands.get(name).sum(), count(errors, name)))
+                    .append("\n");
+        }
+        Admission a = admission;
+        if (a != null) {
+            a.report(out);
+        }
+        Broadcast.report(out);
+        ReplicationLog r = replication;
+        if (r != null) {
+            r.report(out);
+        }
+    }
+
+    private static long count(Map<String, LongAdder> map, String name) {
+        LongAdder adder = map.get(name);
+        return (adder == null) ? 0 : adder.sum();
+    }
+
+    public static void reset() {
+        for (Timer timer : Timer.values()) {
+            timer.histogram.reset();
+        }
+        commands.clear();
+        errors.clear();
+        Admission a = admission;
+        if (a != null) {
+            a.reset();
+        }
+        Broadcast.reset();
+    }
+
+    // register the JMX bean, once at startup
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("baccarat:type=Metrics"));
+        } catch (Exception e) {
+            Log.warn("Error registering metrics MBean: " + e.getMessage());
+        }
+    }
+
+    public interface MetricsMXBean {
+        Map<String, Long> getCounts();
+
+        Map<String, Long> getP50Micros();
+
+        Map<String, Long> getP99Micros();
+
+        Map<String, Long> getMaxMicros();
+
+        Map<String, Long> getCommands();
+
+        Map<String, Long> getErrors();
+
+        int getOpenConnections();
+
+        int getQueueDepth();
+
+        // connections, queue, rate
+        Map<String, Long> getRejects();
+
+        String getReport();
+
+        void reset();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        private interface Stat {
+            long of(Histogram h);
+        }
+
+        private static Map<String, Long> timers(Stat stat) {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Timer timer : Timer.values()) {
+                values.put(timer.label, stat.of(timer.histogram));
+            }
+            return values;
+        }
+
+        private static Map<String, Long> sums(Map<String, LongAdder> map) {
+            Map<String, Long> values = new TreeMap<>();
+            map.forEach((name, adder) -> values.put(name, adder.sum()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getCounts() {
+            return timers(Histogram::count);
+        }
+
+        @Override
+        public Map<String, Long> getP50Micros() {
+            return timers(h -> TimeUnit.NANOSECONDS.toMicros(h.percentile(50)));
+        }
+
+        @Override
+        public Map<String, Long> getP99Micros() {
+            return timers(h -> TimeUnit.NANOSECONDS.toMicros(h.percentile(99)));
+        }
+
+        @Override
+        public Map<String, Long> getMaxMicros() {
+            return timers(h -> TimeUnit.NANOSECONDS.toMicros(h.max()));
+        }
+
+        @Override
+        public Map<String, Long> getCommands() {
+            return sums(commands);
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            return sums(errors);
+        }
+
+        @Override
+        public int getOpenConnections() {
+            Admission a = admission;
+            return (a == null) ? 0 : a.openConnections();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            Admission a = admission;
+            return (a == null) ? 0 : a.queueDepth();
+        }
+
+        @Override
+        public Map<String, Long> getRejects() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            Admission a = admission;
+            values.put("connections", (a == null) ? 0 : a.rejectedConnections());
+            values.put("queue", (a == null) ? 0 : a.rejectedQueue());
+            values.put("rate", (a == null) ? 0 : a.rejectedRate());
+            return values;
+        }
+
+        @Override
+        public String getReport() {
+            StringBuilder out = new StringBuilder();
+            report(out);
+            return out.toString();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    // log-linear histogram of nanoseconds, safe for concurrent recording
+    // every power of two is split into 8 buckets, so values are within 12.5%
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        // up to 2^40 ns, about 18 minutes
+        private static final int MAX_EXPONENT = 40 - SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT + 2) * SUB);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            int exponent = Math.min(Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS), MAX_EXPONENT);
+            long mantissa = Math.min(value >>> exponent, 2L * SUB - 1);
+            counts.incrementAndGet(exponent * SUB + (int) mantissa);
+            total.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        double mean() {
+            long n = total.sum();
+            return (n == 0) ? 0 : (double) sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // upper edge of the bucket holding the percentile, capped at the max
+        long percentile(double percentile) {
+            long n = 0;
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= target) {
+                    return Math.min(highestInBucket(i), max());
+                }
+            }
+            return max();
+        }
+
+        private static long highestInBucket(int index) {
+            if (index < 2 * SUB) {
+                return index;
+            }
+            int exponent = index / SUB - 1;
+            long mantissa = index - (long) exponent * SUB;
+            return ((mantissa + 1) << exponent) - 1;
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    // JFR events, off unless a recording enables them
+
+    @Name("baccarat.Deal")
+    @Label("Deal")
+    @Category("Baccarat")
+    @StackTrace(false)
+    static final class DealEvent extends Event {
+        @Label("Table")
+        String table;
+        @Label("Hands")
+        int hands;
+        @Label("Status")
+        String status;
+    }
+
+    @Name("baccarat.Command")
+    @Label("Command")
+    @Category("Baccarat")
+    @StackTrace(false)
+    static final class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Error")
+        boolean error;
+    }
+
+    @Name("baccarat.HistoryFlush")
+    @Label("History Flush")
+    @Category("Baccarat")
+    @StackTrace(false)
+    static final class HistoryFlushEvent extends Event {
+        @Label("Hands")
+        int hands;
+    }
+
+    @Name("baccarat.ShoePersist")
+    @Label("Shoe Persist")
+    @Category("Baccarat")
+    @StackTrace(false)
+    static final class ShoePersistEvent extends Event {
+        @Label("Cursor")
+        int cursor;
+    }
+}
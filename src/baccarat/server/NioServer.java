@@ -0,0 +1,549 @@
+package baccarat.server;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// non-blocking front-end -- one selector thread owns every socket
+// complete lines are handed to a small worker pool because the game logic still does file I/O,
+// and replies are passed back to the selector thread to be written
+// speaks the same protocols as BaccaratEngine, including "session" and "binary"
+// connections over the Admission cap are answered busy and closed on accept, a batch the
+// workers' queue has no room for is answered busy without running
+// a watching connection is fed from its Broadcast queue by the selector thread, only as fast
+// as the socket takes it
+public class NioServer {
+    private static final int MAX_LINE = 1024;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    // most pipelined commands handed to a worker at once
+    private static final int MAX_BATCH = 64;
+
+    private final int port;
+    private final BaccaratGame game;
+    private final ExecutorService workers;
+    private final Admission admission;
+    private volatile Selector selector;
+    private volatile boolean stopped;
+
+    // work handed back to the selector thread by the workers
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // one read buffer for every connection, only the selector thread touches it
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    // reused by each worker thread for binary deals
+    private static final ThreadLocal<Hand> hands = ThreadLocal.withInitial(Hand::new);
+
+    public NioServer(int port, BaccaratGame game, ExecutorService workers) {
+        this(port, game, workers, Admission.unlimited());
+    }
+
+    public NioServer(int port, BaccaratGame game, ExecutorService workers, Admission admission) {
+        this.port = port;
+        this.game = game;
+        this.workers = workers;
+        this.admission = admission;
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        Log.info("Waiting for connections on port " + port + " (nio)");
+
+        long lastSweep = System.currentTimeMillis();
+        while (!stopped) {
+            selector.select(SWEEP_INTERVAL_MS);
+
+            Runnable task;
+            while ((task = pending.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server);
+                    } else {
+                        Connection conn = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            conn.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.flush();
+                        }
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+                sweepIdle(now);
+                lastSweep = now;
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        server.close();
+        selector.close();
+    }
+
+    // from any thread -- run() stops taking connections, closes the ones it has and returns
+    public void stop() {
+        stopped = true;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        long start = System.nanoTime();
+        while ((channel = server.accept()) != null) {
+            if (!admission.tryOpen()) {
+                rejectBusy(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            Metrics.Timer.ACCEPT.record(start);
+            start = System.nanoTime();
+        }
+    }
+
+    // still blocking, and the reply fits the empty send buffer of a new socket
+    private static void rejectBusy(SocketChannel channel) {
+        try {
+            channel.write(ByteBuffer.wrap((Admission.BUSY + "\n\n").getBytes(StandardCharsets.UTF_8)));
+            channel.shutdownOutput();
+            channel.close();
+        } catch (IOException e) {
+            // the client has gone already
+        }
+    }
+
+    private void sweepIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection conn = (Connection) key.attachment();
+                if (!conn.busy && conn.watcher == null && now - conn.lastActive > conn.idleMillis) {
+                    if (conn.session) {
+                        conn.send("Session timed out.\n\n");
+                    }
+                    conn.closeAfterWrite();
+                }
+            }
+        }
+    }
+
+    // one text command or one binary frame waiting for a worker
+    private class Request {
+        private final String[] input;
+        private final ByteBuffer frame;
+        private final boolean exit;
+        private final boolean watch;
+        // over the client's rate, answered without running
+        private final boolean limited;
+        // set by run() for a watch that found its table
+        private Broadcast.Watcher watcher;
+
+        Request(String[] input, ByteBuffer frame, boolean limited) {
+            this.input = input;
+            this.frame = frame;
+            this.exit = (frame != null) ? BinaryProtocol.isExit(frame) : BaccaratGame.isExit(input);
+            this.watch = (frame == null) && input[0].equalsIgnoreCase("watch");
+            // exit is always let through so a limited client can still leave
+            this.limited = limited && !exit;
+        }
+
+        // ready is how a watch gets back to its connection
+        ByteBuffer run(boolean session, Runnable ready) throws IOException {
+            if (limited) {
+                return busy(Admission.RATE_LIMITED, session);
+            }
+            if (frame != null) {
+                return BinaryProtocol.handle(game, hands.get(), frame);
+            }
+            if (watch) {
+                watcher = game.watch((input.length > 1) ? input[1] : null, ready);
+                // the first update is the answer
+                return (watcher != null) ? ByteBuffer.allocate(0)
+                        : Broadcast.encode("Unknown table " + input[1] + ".\n\n");
+            }
+            String reply = game.handle(input);
+            return ByteBuffer.wrap((session ? reply + "\n" : reply).getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteBuffer busy(String text, boolean session) {
+            if (frame != null) {
+                return BinaryProtocol.message(text + "\n");
+            }
+            return ByteBuffer.wrap((session ? text + "\n\n" : text + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // per-connection state, only touched on the selector thread
+    private class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        // partial line carried between reads, cleared and reused after every line
+        private ByteBuffer lineBuffer;
+        // binary protocol only -- bytes of the frame being assembled
+        private ByteBuffer frameBuffer;
+        private final Deque<Request> commands = new ArrayDeque<>();
+        private final Deque<ByteBuffer> out = new ArrayDeque<>();
+        private boolean started;
+        private boolean session;
+        private boolean binary;
+        private boolean busy;
+        private boolean closing;
+        private boolean closed;
+        private long idleMillis = 300_000L;
+        private long lastActive = System.currentTimeMillis();
+        // watching a table -- set and cleared on the selector thread
+        private Broadcast.Watcher watcher;
+        // a drain of the watcher is already waiting in pending
+        private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            readBuffer.flip();
+
+            if (!binary) {
+                readLines();
+            }
+            if (binary) {
+                readFrames();
+            }
+        }
+
+        private void readLines() throws IOException {
+            int start = readBuffer.position();
+            for (int i = start; i < readBuffer.limit(); i++) {
+                if (readBuffer.get(i) == '\n') {
+                    appendToLine(start, i);
+                    readBuffer.position(i + 1);
+                    onLine(takeLine());
+                    start = i + 1;
+                    if (binary) {
+                        // whatever follows the handshake line is frames
+                        return;
+                    }
+                }
+            }
+            appendToLine(start, readBuffer.limit());
+            readBuffer.position(readBuffer.limit());
+        }
+
+        // frameBuffer holds one whole frame, so every pass takes at least one byte
+        private void readFrames() throws IOException {
+            while (readBuffer.hasRemaining()) {
+                int n = Math.min(readBuffer.remaining(), frameBuffer.remaining());
+                ByteBuffer slice = readBuffer.duplicate();
+                slice.limit(slice.position() + n);
+                frameBuffer.put(slice);
+                readBuffer.position(readBuffer.position() + n);
+
+                frameBuffer.flip();
+                while (frameBuffer.remaining() >= 4) {
+                    int length = frameBuffer.getInt(frameBuffer.position());
+                    if (length < 1 || length > BinaryProtocol.MAX_FRAME) {
+                        throw new IOException("Bad frame length " + length);
+                    }
+                    if (frameBuffer.remaining() < 4 + length) {
+                        break;
+                    }
+                    frameBuffer.position(frameBuffer.position() + 4);
+                    ByteBuffer body = frameBuffer.duplicate();
+                    body.limit(body.position() + length);
+                    ByteBuffer frame = ByteBuffer.allocate(length);
+                    frame.put(body).flip();
+                    frameBuffer.position(frameBuffer.position() + length);
+                    enqueue(new Request(null, frame, !admission.allow(remote())));
+                }
+                frameBuffer.compact();
+            }
+        }
+
+        private void appendToLine(int from, int to) throws IOException {
+            if (from == to) {
+                return;
+            }
+            if (lineBuffer == null) {
+                lineBuffer = ByteBuffer.allocate(MAX_LINE);
+            }
+            if (to - from > lineBuffer.remaining()) {
+                throw new IOException("Line too long");
+            }
+            ByteBuffer slice = readBuffer.duplicate();
+            slice.limit(to).position(from);
+            lineBuffer.put(slice);
+        }
+
+        private String takeLine() {
+            if (lineBuffer == null) {
+                return "";
+            }
+            lineBuffer.flip();
+            String line = StandardCharsets.UTF_8.decode(lineBuffer).toString();
+            lineBuffer.clear();
+            return line.trim();
+        }
+
+        private void onLine(String line) {
+            if (closing) {
+                return;
+            }
+            String[] input = BaccaratGame.parse(line);
+            if (!started) {
+                started = true;
+                if (input[0].equalsIgnoreCase("session")) {
+                    session = true;
+                    int idleSeconds = BaccaratEngine.idleSeconds(input);
+                    idleMillis = idleSeconds * 1000L;
+                    send("Session started. Idle timeout: " + idleSeconds + "s\n\n");
+                    return;
+                }
+                if (input[0].equalsIgnoreCase(BinaryProtocol.HANDSHAKE)) {
+                    binary = true;
+                    session = true;
+                    frameBuffer = ByteBuffer.allocate(4 + BinaryProtocol.MAX_FRAME);
+                    send(BinaryProtocol.message("Binary protocol.\n"));
+                    return;
+                }
+            }
+            if (line.isEmpty() || (!session && (busy || watcher != null || !commands.isEmpty()))) {
+                // outside a session only the first command is handled
+                return;
+            }
+            enqueue(new Request(input, null, !admission.allow(remote())));
+        }
+
+        private void enqueue(Request request) {
+            if (closing) {
+                return;
+            }
+            commands.add(request);
+            dispatchNext();
+        }
+
+        // commands from one connection run one batch at a time and in order
+        // everything pipelined so far goes to the worker as one task, up to an exit
+        private void dispatchNext() {
+            while (watcher != null && !commands.isEmpty()) {
+                whileWatching(commands.poll());
+            }
+            if (busy || commands.isEmpty()) {
+                return;
+            }
+            busy = true;
+            List<Request> batch = new ArrayList<>();
+            while (!commands.isEmpty() && batch.size() < MAX_BATCH) {
+                Request request = commands.poll();
+                batch.add(request);
+                // commands after a watch wait until it stops
+                if (request.exit || request.watch) {
+                    break;
+                }
+            }
+            try {
+                workers.execute(() -> {
+                    List<ByteBuffer> replies = new ArrayList<>(batch.size());
+                    for (Request request : batch) {
+                        try {
+                            replies.add(request.run(session, this::watchReady));
+                        } catch (IOException e) {
+                            replies.add(ByteBuffer.wrap(("Error: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8)));
+                        }
+                    }
+                    pending.add(() -> onReply(batch, replies));
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                // workers' queue is full -- answer busy in order, on the next pass of the loop
+                admission.queueFull();
+                List<ByteBuffer> replies = new ArrayList<>(batch.size());
+                for (Request request : batch) {
+                    replies.add(request.busy(Admission.BUSY, session));
+                }
+                pending.add(() -> onReply(batch, replies));
+                selector.wakeup();
+            }
+        }
+
+        // a command sent while watching -- unwatch stops, exit stops and leaves, the rest are
+        // only reminded
+        private void whileWatching(Request request) {
+            if (request.input[0].equalsIgnoreCase("unwatch")) {
+                stopWatching();
+                send("Stopped watching.\n\n");
+            } else if (request.exit) {
+                stopWatching();
+                commands.addFirst(request);
+            } else {
+                send("Watching. Send unwatch to stop.\n\n");
+            }
+        }
+
+        private void stopWatching() {
+            watcher.close();
+            watcher = null;
+        }
+
+        // from the table's loop, whenever an update is queued for this connection
+        private void watchReady() {
+            if (drainScheduled.compareAndSet(false, true)) {
+                pending.add(() -> {
+                    drainScheduled.set(false);
+                    if (!closed && watcher != null) {
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            close();
+                        }
+                    }
+                });
+                selector.wakeup();
+            }
+        }
+
+        // updates move from the watcher's queue only once the socket has taken everything
+        // before them, so a slow watcher backs up in Broadcast and is resynced there
+        private void pullUpdates() {
+            if (watcher == null || closing || !out.isEmpty()) {
+                return;
+            }
+            ByteBuffer update;
+            while (out.size() < Broadcast.QUEUE && (update = watcher.poll()) != null) {
+                out.add(update);
+            }
+        }
+
+        private InetAddress remote() {
+            return channel.socket().getInetAddress();
+        }
+
+        private void onReply(List<Request> batch, List<ByteBuffer> replies) {
+            busy = false;
+            lastActive = System.currentTimeMillis();
+            Request last = batch.get(batch.size() - 1);
+            if (!channel.isOpen()) {
+                if (last.watcher != null) {
+                    // gone while the watch was being set up
+                    last.watcher.close();
+                }
+                return;
+            }
+            out.addAll(replies);
+            if (last.watcher != null) {
+                watcher = last.watcher;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if ((!session && watcher == null) || last.exit) {
+                closeAfterWrite();
+            } else {
+                dispatchNext();
+            }
+        }
+
+        void send(String text) {
+            send(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        void send(ByteBuffer buf) {
+            out.add(buf);
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            pullUpdates();
+            while (!out.isEmpty()) {
+                // one gathering write for every queued reply
+                channel.write(out.toArray(new ByteBuffer[0]));
+                while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                    out.poll();
+                }
+                if (!out.isEmpty()) {
+                    // socket buffer is full -- wait for OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pullUpdates();
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            if (closing) {
+                close();
+            }
+        }
+
+        void closeAfterWrite() {
+            closing = true;
+            commands.clear();
+            if (out.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                admission.closed();
+            }
+            if (watcher != null) {
+                stopWatching();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
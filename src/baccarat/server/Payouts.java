@@ -0,0 +1,52 @@
+package baccarat.server;
+
+// what each bet pays, kept apart from the game so the simulator can try other numbers
+// multiples are "to 1": a winning banker bet at 1 returns the stake plus 1 stake
+// a player or banker bet on a draw is refunded
+public final class Payouts {
+    // banker 1:1, banker winning with 6 points 2:1, player 1:1, tie 8:1
+    public static final Payouts STANDARD = new Payouts(1, 2, 1, 8);
+
+    public final int banker;
+    public final int bankerSix;
+    public final int player;
+    public final int tie;
+
+    public Payouts(int banker, int bankerSix, int player, int tie) {
+        this.banker = banker;
+        this.bankerSix = bankerSix;
+        this.player = player;
+        this.tie = tie;
+    }
+
+    // stakes that go back to the player, stake included -- 0 for a lost bet
+    // side is 'B', 'P' or 'D' (tie)
+    public int returned(Hand hand, char side) {
+        return returned(hand.outcome, hand.isSixCardRule(), side);
+    }
+
+    public int returned(Hand.Outcome outcome, boolean sixCardRule, char side) {
+        switch (outcome) {
+            case BANKER:
+                if (side != 'B') {
+                    return 0;
+                }
+                return 1 + (sixCardRule ? bankerSix : banker);
+            case PLAYER:
+                return (side == 'P') ? 1 + player : 0;
+            default:
+                // "Tie" bet -- both hands tie, any other bet is refunded
+                return (side == 'D') ? 1 + tie : 1;
+        }
+    }
+
+    // the most any winning bet returns, stake included
+    public int maxReturned() {
+        return 1 + Math.max(Math.max(banker, bankerSix), Math.max(player, tie));
+    }
+
+    @Override
+    public String toString() {
+        return "banker " + banker + ":1 (6 points " + bankerSix + ":1), player " + player + ":1, tie " + tie + ":1";
+    }
+}
@@ -0,0 +1,84 @@
+package baccarat.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// the results of recent requests by id, so a client retrying after a dropped connection gets
+// the first answer back instead of the bet being settled twice
+// a retry that arrives while the first attempt is still running waits for it
+// bounded: the oldest ids are forgotten once there are more than the capacity
+final class RecentRequests<V> {
+    private final int capacity;
+    // results worth remembering -- a bet that was never placed can simply run again
+    private final Predicate<V> keep;
+    private final ConcurrentHashMap<String, CompletableFuture<V>> results = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+    private final LongAdder repeats = new LongAdder();
+
+    RecentRequests(int capacity, Predicate<V> keep) {
+        this.capacity = capacity;
+        this.keep = keep;
+    }
+
+    // runs task unless key has been seen, in which case its result is returned
+    V run(String key, Supplier<V> task) {
+        while (true) {
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            CompletableFuture<V> first = results.putIfAbsent(key, mine);
+            if (first != null) {
+                try {
+                    V value = first.join();
+                    repeats.increment();
+                    return value;
+                } catch (CompletionException e) {
+                    // the first attempt failed and is forgotten, try again
+                    continue;
+                }
+            }
+
+            V value;
+            try {
+                value = task.get();
+            } catch (RuntimeException e) {
+                results.remove(key, mine);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            if (keep.test(value)) {
+                remember(key);
+            } else {
+                results.remove(key, mine);
+            }
+            mine.complete(value);
+            return value;
+        }
+    }
+
+    // a result known from before a restart
+    void put(String key, V value) {
+        if (results.putIfAbsent(key, CompletableFuture.completedFuture(value)) == null) {
+            remember(key);
+        }
+    }
+
+    private void remember(String key) {
+        order.add(key);
+        while (results.size() > capacity) {
+            String oldest = order.poll();
+            if (oldest == null) {
+                break;
+            }
+            results.remove(oldest);
+        }
+    }
+
+    // requests answered from the cache
+    long repeats() {
+        return repeats.sum();
+    }
+}
@@ -0,0 +1,349 @@
+package baccarat.server;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// the primary's side of hot-standby replication
+// every change a standby needs is encoded where it happens -- on the table's loop, or inside
+// compute() for the user -- and queued; one writer thread sends whatever has queued up as a
+// batch and goes straight on to the next, the standby acks batches as it applies them on
+// another thread, so nothing on the deal path ever waits for the standby
+// one standby at a time, on a port of its own; a standby that connects first gets the whole
+// state (balances, each table's shoe and recent outcomes) and then the changes in order
+//
+// frames both ways are: int length (type + body), byte type, body
+// strings and amounts as in BinaryProtocol
+//   BALANCE   string user, amount balance           -- a balance set outright
+//   SETTLED   short count, then count settlement records as the journal writes them
+//   TABLE     string table, int position, int card count, cards, int count, outcome ordinals
+//   SHOE      string table, int card count, cards   -- a fresh shoe went into play
+//   HANDS     string table, int position, int count, outcome ordinals
+//   SYNCED    (empty) -- the whole state has been sent
+//   BATCH     long batch number -- end of a batch, the standby answers ACK with the number
+//   HEARTBEAT (empty) -- sent when there is nothing else, so the standby can tell silence
+//                        from a primary that is gone
+//   RESYNC    (empty) -- the standby fell too far behind, it should reconnect and start over
+// a standby only ever sends ACK
+final class ReplicationLog {
+    static final byte BALANCE = 1;
+    static final byte SETTLED = 2;
+    static final byte TABLE = 3;
+    static final byte SHOE = 4;
+    static final byte HANDS = 5;
+    static final byte SYNCED = 6;
+    static final byte BATCH = 7;
+    static final byte HEARTBEAT = 8;
+    static final byte RESYNC = 9;
+    static final byte ACK = 10;
+
+    static final int HEARTBEAT_MS = 100;
+    // changes that may queue up for a standby before it is made to start over
+    private static final int QUEUE = 1 << 16;
+
+    private final int port;
+    private final List<Table> tables;
+    private AccountStore accounts;
+    // the standby being fed, null when there is none
+    private volatile Link link;
+
+    ReplicationLog(int port, List<Table> tables) {
+        this.port = port;
+        this.tables = tables;
+    }
+
+    // the log AccountStore writes to, plus replication of what a standby needs
+    // stakes are left out: a standby applies settled hands, like the settlement journal
+    BalanceLog wrap(BalanceLog log) {
+        return new BalanceLog() {
+            @Override
+            public long record(String username, BigInteger balance) {
+                long ticket = log.record(username, balance);
+                sendBalance(username, balance);
+                return ticket;
+            }
+
+            @Override
+            public long reserved(String username, BigInteger balance) {
+                return log.reserved(username, balance);
+            }
+
+            @Override
+            public long settled(String username, BigInteger balance, boolean changed,
+                    List<SettlementRecord> records) {
+                long ticket = log.settled(username, balance, changed, records);
+                sendSettled(records);
+                return ticket;
+            }
+
+            @Override
+            public String unfit(String username, BigInteger balance) {
+                return log.unfit(username, balance);
+            }
+
+            @Override
+            public List<SettlementRecord> recovered() {
+                return log.recovered();
+            }
+
+            @Override
+            public void await(long ticket) {
+                log.await(ticket);
+            }
+
+            @Override
+            public void close() {
+                log.close();
+            }
+        };
+    }
+
+    // accounts is the store returned by AccountStore.replicatedTo()
+    void start(AccountStore accounts) throws IOException {
+        this.accounts = accounts;
+        for (Table table : tables) {
+            table.replicateTo(this);
+        }
+        ServerSocket server = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> accept(server), "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.info("Waiting for a standby on port " + port);
+    }
+
+    private void accept(ServerSocket server) {
+        while (true) {
+            try {
+                Socket sock = server.accept();
+                sock.setTcpNoDelay(true);
+                Link previous = link;
+                if (previous != null) {
+                    previous.close();
+                }
+                Link fresh = new Link(sock);
+                link = fresh;
+                fresh.start();
+                sync(fresh);
+                Log.info("Standby " + sock.getRemoteSocketAddress() + " is following");
+            } catch (IOException e) {
+                Log.warn("Error accepting a standby: " + e.getMessage());
+            }
+        }
+    }
+
+    // the changes from here on already go to the link, the state is queued behind them one
+    // user and one table at a time, so each is in order with its own changes
+    private void sync(Link link) {
+        accounts.forEachBalance((user, balance) -> link.add(balanceFrame(user, balance)));
+        for (Table table : tables) {
+            table.call(() -> {
+                Shoe shoe = table.shoe();
+                byte[] cards = shoe.cards();
+                byte[] outcomes = table.stats().recent();
+                ByteBuffer buf = frame(TABLE, 2 + 4 * table.id().length() + 12 + cards.length + outcomes.length);
+                SettlementRecord.putString(buf, table.id());
+                buf.putInt(shoe.position());
+                buf.putInt(cards.length);
+                buf.put(cards);
+                buf.putInt(outcomes.length);
+                buf.put(outcomes);
+                link.add(finish(buf));
+                link.synced.add(table.id());
+                return null;
+            });
+        }
+        link.add(finish(frame(SYNCED, 0)));
+    }
+
+    // inside compute() for the user
+    private void sendBalance(String username, BigInteger balance) {
+        Link l = link;
+        if (l != null) {
+            l.add(balanceFrame(username, balance));
+        }
+    }
+
+    private static byte[] balanceFrame(String username, BigInteger balance) {
+        ByteBuffer buf = frame(BALANCE, 2 + 4 * username.length() + 1 + balance.bitLength() / 8 + 1);
+        SettlementRecord.putString(buf, username);
+        SettlementRecord.putAmount(buf, balance);
+        return finish(buf);
+    }
+
+    // inside compute() for the user, one multideal is one frame
+    private void sendSettled(List<SettlementRecord> records) {
+        Link l = link;
+        if (l == null || records.isEmpty()) {
+            return;
+        }
+        int size = 2;
+        for (SettlementRecord record : records) {
+            size += record.maxSize();
+        }
+        ByteBuffer buf = frame(SETTLED, size);
+        buf.putShort((short) records.size());
+        for (SettlementRecord record : records) {
+            record.write(buf);
+        }
+        l.add(finish(buf));
+    }
+
+    // loop only -- a fresh shoe went into play on the table
+    void shoe(Table table, Shoe shoe) {
+        Link l = link;
+        if (l == null || !l.synced.contains(table.id())) {
+            return;
+        }
+        byte[] cards = shoe.cards();
+        ByteBuffer buf = frame(SHOE, 2 + 4 * table.id().length() + 4 + cards.length);
+        SettlementRecord.putString(buf, table.id());
+        buf.putInt(cards.length);
+        buf.put(cards);
+        l.add(finish(buf));
+    }
+
+    // loop only -- hands just recorded on the table
+    void hands(Table table, Hand.Outcome[] outcomes, int count) {
+        Link l = link;
+        if (l == null || !l.synced.contains(table.id())) {
+            return;
+        }
+        ByteBuffer buf = frame(HANDS, 2 + 4 * table.id().length() + 8 + count);
+        SettlementRecord.putString(buf, table.id());
+        buf.putInt(table.shoe().position());
+        buf.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buf.put((byte) outcomes[i].ordinal());
+        }
+        l.add(finish(buf));
+    }
+
+    // room for the length, the type and up to size bytes of body
+    private static ByteBuffer frame(byte type, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(4 + 1 + size);
+        buf.putInt(0);
+        buf.put(type);
+        return buf;
+    }
+
+    private static byte[] finish(ByteBuffer buf) {
+        buf.putInt(0, buf.position() - 4);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    void report(StringBuilder out) {
+        Link l = link;
+        out.append(String.format("%-14s %10s %10s %10s %10s", "replication", "standby", "batches", "acked",
+                "queued")).append("\n");
+        out.append(String.format("%-14s %10s %10d %10d %10d", "", (l == null) ? "none" : "following",
+                (l == null) ? 0 : l.sent, (l == null) ? 0 : l.acked, (l == null) ? 0 : l.queue.size()))
+                .append("\n");
+    }
+
+    // one standby connection: a writer thread sending batches, a reader thread taking acks
+    private final class Link {
+        private final Socket sock;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE);
+        // tables whose state has been queued, their changes are sent from then on
+        private final Set<String> synced = ConcurrentHashMap.newKeySet();
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+        private volatile long sent;
+        private volatile long acked;
+
+        Link(Socket sock) {
+            this.sock = sock;
+        }
+
+        void start() {
+            Thread writer = new Thread(this::write, "replication-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Thread reader = new Thread(this::readAcks, "replication-acks");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // never blocks -- a standby that falls this far behind is sent RESYNC instead
+        void add(byte[] frame) {
+            if (!queue.offer(frame)) {
+                overflowed = true;
+            }
+        }
+
+        private void write() {
+            List<byte[]> batch = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(sock.getOutputStream(), 64 * 1024))) {
+                while (!closed) {
+                    byte[] first = queue.poll(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                    if (overflowed) {
+                        Log.warn("Standby fell behind, starting it over");
+                        out.write(finish(frame(RESYNC, 0)));
+                        out.flush();
+                        break;
+                    }
+                    if (first == null) {
+                        out.write(finish(frame(HEARTBEAT, 0)));
+                        out.flush();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (byte[] frame : batch) {
+                        out.write(frame);
+                    }
+                    batch.clear();
+                    sent++;
+                    ByteBuffer end = frame(BATCH, 8);
+                    end.putLong(sent);
+                    out.write(finish(end));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.warn("Lost the standby: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void readAcks() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream()))) {
+                while (!closed) {
+                    int length = in.readInt();
+                    byte type = in.readByte();
+                    if (type != ACK || length != 9) {
+                        throw new IOException("Unexpected frame from standby: " + type);
+                    }
+                    acked = in.readLong();
+                }
+            } catch (IOException e) {
+                // the writer notices too
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (link == this) {
+                link = null;
+            }
+            try {
+                sock.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
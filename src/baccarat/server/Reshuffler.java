@@ -0,0 +1,89 @@
+package baccarat.server;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.random.RandomGenerator;
+
+// keeps the next shoe for a table shuffled and ready while the current one is dealt
+// once the current shoe is down to the cut card the table swaps the ready one in, which is
+// only a field write -- the shuffle, and for a persistent shoe the file writes, happened
+// in the background long before
+// the next shoe starts preparing as soon as the last one is taken, so take() only waits if
+// a whole shoe was dealt faster than one shuffle
+class Reshuffler {
+    // builds a shoe around freshly shuffled cards
+    interface Source {
+        // runs in the background -- must not touch the files of the shoe being dealt
+        Shoe create(byte[] cards) throws IOException;
+
+        // runs on the table's loop when the shoe created above replaces the current one
+        default void activate(Shoe shoe) throws IOException {
+        }
+    }
+
+    // shared by every table, shuffles are short and rare
+    private static final ExecutorService SHUFFLERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread thread = new Thread(r, "shoe-shuffler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final String tableId;
+    private final int decks;
+    private final int cutCard;
+    // only used by one shuffle at a time
+    private final RandomGenerator random;
+    private final Source source;
+    // loop only
+    private Future<Shoe> next;
+
+    // cutCard is the number of cards left when the shoe is replaced, at least one full hand
+    Reshuffler(String tableId, int decks, int cutCard, RandomGenerator random, Source source) {
+        if (cutCard < 6) {
+            throw new IllegalArgumentException("cut card must leave at least 6 cards: " + cutCard);
+        }
+        this.tableId = tableId;
+        this.decks = decks;
+        this.cutCard = cutCard;
+        this.random = random;
+        this.source = source;
+        next = prepare();
+    }
+
+    private Future<Shoe> prepare() {
+        return SHUFFLERS.submit(() -> source.create(Cards.shuffled(decks, random)));
+    }
+
+    // true once no more hands should come out of the shoe
+    boolean due(Shoe shoe) {
+        return shoe.remaining() <= cutCard;
+    }
+
+    // loop only -- the prepared shoe, or null if it could not be made (the current one is kept
+    // and another is started)
+    Shoe take() {
+        Shoe shoe = null;
+        try {
+            shoe = next.get();
+            source.activate(shoe);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | IOException e) {
+            Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+            Log.error("Error preparing the next shoe for table " + tableId + ": " + cause.getMessage());
+            if (shoe != null) {
+                shoe.close();
+                shoe = null;
+            }
+        }
+        next = prepare();
+        return shoe;
+    }
+
+    // close the shoe that was replaced off the loop, a mapped one waits for its last force
+    void retire(Shoe shoe) {
+        SHUFFLERS.execute(shoe::close);
+    }
+}
@@ -1,3 +1,4 @@
+package baccarat.server;
 
 // check if amount is sufficient under deal
 // synchronised, volatile -- prevent race conditions
@@ -5,9 +6,15 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.random.RandomGenerator;
 
 public class ServerApp {
     // first arg = port number
@@ -15,102 +22,558 @@ public class ServerApp {
     // private static int numDeck;
     // private String username;
 
-    public static List<String> generateCards(int numDeck){
-        // create the shuffled deck of cards
-        List<String> cards = new ArrayList<>();
-        for (int i = 0; i < numDeck; i++){
-            for (int v = 1; v < 14; v++){
-                // 11 - Joker, 12 - Queen, 13 - King
-                for (int s = 1; s < 5; s++){
-                    cards.add(Integer.toString(v) + "." + Integer.toString(s));
-                }
-            }
-        }
-        Collections.shuffle(cards);
-        
+    // create the shuffled deck of cards
+    public static byte[] shuffledCards(int numDeck){
+        return Cards.shuffled(numDeck, new Random());
+    }
+
+    public static byte[] generateCards(int numDeck){
+        return generateCards(numDeck, new File("cards.db"));
+    }
+
+    public static byte[] generateCards(int numDeck, File file){
+        byte[] cards = shuffledCards(numDeck);
+
         // create a "cards.db" database and save the shuffled cards
         try{
-            File file = new File("cards.db");
-            FileWriter fw = new FileWriter(file, false);
-            BufferedWriter bw = new BufferedWriter(fw);
-
-            for (String s : cards){
-                bw.write(s);
-                bw.newLine();
-            }
-            bw.flush();
-            bw.close();
-            fw.close();
+            Shoe.writeCards(cards, file);
         } catch (IOException e){
-            System.out.println("Error writing to cards.db: " + e.getMessage());
+            Log.error("Error writing to " + file + ": " + e.getMessage());
         }
 
         return cards;
     }
 
+    // the main table keeps the original file names, other tables get their id appended
+    static File tableFile(String tableId, String name, String extension){
+        if (tableId.equals(BaccaratGame.DEFAULT_TABLE)){
+            return new File(name + extension);
+        }
+        return new File(name + "_" + tableId + extension);
+    }
+
     public static void main(String[] args) {
         
         // ensure that application can accept two arguments
         if (args.length < 2){
-            System.out.println("Usage: java -cp classes baccarat.server.ServerApp <port number> <deck>");
+            System.out.println("Usage: java -cp classes baccarat.server.ServerApp <port number> <deck> [--nio] [--executor=fixed:<n>|cached|virtual] [--tables=main,vip:6,...] [--store=text|mmap[:op|group|periodic:<ms>]] [--log=debug|info|warn|error] [--audit=on|off] [--cut=<cards>] [--rng=secure|fast] [--max-connections=<n>] [--queue=<n>] [--rate=<commands/s>[:<burst>]] [--replicate=<port>] [--standby=<host>:<port>] [--snapshot=<ms>|off]");
             System.exit(0);
         }
 
         int port;
         int numDeck;
+        boolean nio = false;
+        String executor = null;
+        // table id -> decks, in the order given
+        Map<String, Integer> tableDecks = new LinkedHashMap<>();
+        // null for the default files (cards.db and cards.log, settlements.journal)
+        ForcePolicy mapped = null;
+        // balances in the old text journal instead of the settlement journal
+        boolean textStore = false;
+        // cards left when a table switches to its next shoe, 0 to deal every shoe to the end
+        int cutCard = 14;
+        boolean secureRandom = true;
+        // admission control -- connections open at once, work waiting for a thread, commands
+        // per second per client address (0 for no limit)
+        int maxConnections = 1000;
+        int queueCapacity = 256;
+        double[] rate = { 0, 1 };
+        // hot standby -- the port this server feeds a standby on, the primary this one follows
+        int replicatePort = 0;
+        String standbyOf = null;
+        // how often the tables are snapshotted, 0 to start every table over on each run
+        long snapshotMillis = 1000;
         
         // check that input must be able to be parsed -- no special characters
         try{
             port = Integer.parseInt(args[0]);
             numDeck = Integer.parseInt(args[1]);
-            generateCards(numDeck);
         } catch (NumberFormatException e){
             System.out.println("Invalid arguments. Port and number of decks must be integers");
             return;
         }
 
-    
-        // reset game history on server restart
-        resetGameHistory();
+        // optional flags after <port> <deck>
+        for (int i = 2; i < args.length; i++){
+            if (args[i].equals("--nio")){
+                nio = true;
+            } else if (args[i].startsWith("--executor=")){
+                executor = args[i].substring("--executor=".length());
+            } else if (args[i].startsWith("--tables=")){
+                // "main,vip:6" -- tables without a deck count get <deck>
+                try{
+                    for (String table : args[i].substring("--tables=".length()).split(",")){
+                        String[] parts = table.split(":");
+                        tableDecks.put(parts[0].trim(), (parts.length > 1) ? Integer.parseInt(parts[1].trim()) : numDeck);
+                    }
+                } catch (NumberFormatException e){
+                    System.out.println("Invalid tables: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--store=")){
+                // "mmap" or "mmap:group" -- shoes and balances in mapped files, forced per the policy
+                // "text" -- balances in accounts.journal, one line per change
+                String store = args[i].substring("--store=".length());
+                try{
+                    if (store.equals("text")){
+                        textStore = true;
+                        continue;
+                    }
+                    if (!store.startsWith("mmap")){
+                        throw new IllegalArgumentException(store);
+                    }
+                    mapped = ForcePolicy.parse(store.equals("mmap") ? "group" : store.substring("mmap:".length()));
+                } catch (IllegalArgumentException e){
+                    System.out.println("Invalid store: " + store);
+                    return;
+                }
+            } else if (args[i].startsWith("--log=")){
+                try{
+                    Log.setLevel(Log.Level.valueOf(args[i].substring("--log=".length()).toUpperCase()));
+                } catch (IllegalArgumentException e){
+                    System.out.println("Invalid log level: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--cut=")){
+                try{
+                    cutCard = Integer.parseInt(args[i].substring("--cut=".length()));
+                    if (cutCard != 0 && cutCard < 6){
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e){
+                    System.out.println("Invalid cut card, it must leave at least 6 cards (or 0 for none): " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--max-connections=") || args[i].startsWith("--queue=")){
+                try{
+                    int value = Integer.parseInt(args[i].substring(args[i].indexOf('=') + 1));
+                    if (value < 1){
+                        throw new NumberFormatException();
+                    }
+                    if (args[i].startsWith("--queue=")){
+                        queueCapacity = value;
+                    } else {
+                        maxConnections = value;
+                    }
+                } catch (NumberFormatException e){
+                    System.out.println("Invalid limit: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--rate=")){
+                try{
+                    rate = Admission.parseRate(args[i].substring("--rate=".length()));
+                } catch (IllegalArgumentException e){
+                    System.out.println("Invalid rate: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--replicate=")){
+                try{
+                    replicatePort = Integer.parseInt(args[i].substring("--replicate=".length()));
+                } catch (NumberFormatException e){
+                    System.out.println("Invalid replication port: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--standby=")){
+                // "localhost:6000", the primary's --replicate port
+                standbyOf = args[i].substring("--standby=".length());
+                if (standbyOf.lastIndexOf(':') < 1){
+                    System.out.println("Invalid primary address: " + args[i]);
+                    return;
+                }
+            } else if (args[i].startsWith("--snapshot=")){
+                String every = args[i].substring("--snapshot=".length());
+                try{
+                    snapshotMillis = every.equals("off") ? 0 : Long.parseLong(every);
+                    if (snapshotMillis < 0){
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e){
+                    System.out.println("Invalid snapshot interval: " + args[i]);
+                    return;
+                }
+            } else if (args[i].equals("--rng=secure")){
+                secureRandom = true;
+            } else if (args[i].equals("--rng=fast")){
+                // SplittableRandom -- quicker, but predictable to anyone who learns its state
+                secureRandom = false;
+            } else if (args[i].equals("--audit=off")){
+                // no per-hand audit lines
+                Log.setAudit(false);
+            } else if (args[i].equals("--audit=on")){
+                Log.setAudit(true);
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
 
-        // start the server with a thread pool
-        ExecutorService executorService = Executors.newFixedThreadPool(10);
-        String threadName = Thread.currentThread().getName();
-        try{
-            ServerSocket server = new ServerSocket(port);
+        if (tableDecks.isEmpty()){
+            tableDecks.put(BaccaratGame.DEFAULT_TABLE, numDeck);
+        }
+
+        // timers and command counts, also served by the "metrics" command
+        Metrics.registerMBean();
+
+        // every table has its own shoe and history, and is pinned to one loop
+        // there are never more loops than cores, so extra tables share
+        ExecutorService[] loops = Table.newLoops(Math.min(tableDecks.size(), Runtime.getRuntime().availableProcessors()));
+        List<Table> tables = new ArrayList<>();
+        Shutdown shutdown = new Shutdown(tables);
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "shutdown"));
+        // where each table stood when the last run stopped
+        File snapshotFile = new File("tables.snapshot");
+        Map<String, TableSnapshot.Entry> saved = (snapshotMillis > 0) ? TableSnapshot.read(snapshotFile) : Map.of();
+        for (Map.Entry<String, Integer> entry : tableDecks.entrySet()){
+            String id = entry.getKey();
+            int decks = entry.getValue();
+
+            TableSnapshot.Entry resumed = saved.get(id);
+            if (resumed != null && resumed.cards.length != decks * Cards.DECK_SIZE){
+                Log.warn("Table " + id + " has " + decks + " decks now, starting it over");
+                resumed = null;
+            }
+
+            // a table the snapshot does not have starts its game history over
+            File historyFile = tableFile(id, "game_history", ".csv");
+            if (resumed == null){
+                resetGameHistory(historyFile);
+            }
+
+            try{
+                RandomGenerator random = secureRandom ? new SecureRandom() : new SplittableRandom();
+                Shoe shoe;
+                Reshuffler.Source source;
+                if (mapped != null){
+                    File file = tableFile(id, "shoe", ".map");
+                    source = mappedShoes(file, mapped);
+                    if (resumed != null){
+                        ForcePolicy policy = mapped;
+                        shoe = resumeShoe(id, resumed, () -> file.exists() ? Shoe.openMapped(file, policy) : null,
+                                cards -> Shoe.mapped(cards, file, policy));
+                    } else {
+                        shoe = Shoe.mapped(Cards.shuffled(decks, random), file, mapped);
+                    }
+                } else {
+                    File cardsFile = tableFile(id, "cards", ".db");
+                    File logFile = tableFile(id, "cards", ".log");
+                    source = loggedShoes(cardsFile, logFile);
+                    if (resumed != null){
+                        shoe = resumeShoe(id, resumed, () -> cardsFile.exists() ? Shoe.load(cardsFile, logFile) : null,
+                                cards -> {
+                                    Shoe.writeCards(cards, cardsFile);
+                                    return new Shoe(cards, logFile);
+                                });
+                    } else {
+                        byte[] cards = Cards.shuffled(decks, random);
+                        Shoe.writeCards(cards, cardsFile);
+                        shoe = new Shoe(cards, logFile);
+                    }
+                }
+                Reshuffler reshuffler = (cutCard > 0) ? new Reshuffler(id, decks, cutCard, random, source) : null;
+                TableStats stats = (resumed != null) ? resumeStats(resumed, historyFile) : null;
+                GameHistory history = GameHistory.open(historyFile);
+                Table table = new Table(id, shoe, history, loops[tables.size() % loops.length], reshuffler);
+                if (stats != null){
+                    table.restore(stats);
+                    Log.info("Table " + id + " carries on: " + stats.hands() + " hands, " + shoe.remaining()
+                            + " cards left in the shoe");
+                }
+                tables.add(table);
+            } catch (IOException e){
+                Log.error("Error opening table " + id + ": " + e.getMessage());
+                return;
+            }
+        }
 
-            while (true){
-                System.out.printf("[%s] Waiting for connection on port %d\n", threadName, port);
-                Socket sock = server.accept();
+        if (snapshotMillis > 0){
+            TableSnapshot snapshot = new TableSnapshot(snapshotFile, tables);
+            snapshot.start(snapshotMillis);
+            shutdown.snapshot(snapshot);
+        }
 
-                System.out.println("Got a new connection");
+        // balances are kept in memory and journaled in the background
+        // the settlement journal takes over accounts.journal the first time it starts
+        AccountStore accounts;
+        try{
+            if (mapped != null){
+                accounts = AccountStore.openMapped(new File("accounts.map"), mapped);
+            } else if (textStore){
+                accounts = AccountStore.open(new File("accounts.journal"));
+            } else {
+                accounts = AccountStore.openSettlements(new File("settlements.journal"),
+                        new File("settlements.snapshot"), new File("accounts.journal"));
+            }
+        } catch (IOException e){
+            Log.error("Error opening account journal: " + e.getMessage());
+            return;
+        }
+        shutdown.accounts(accounts);
 
-                BaccaratEngine handler = new BaccaratEngine(sock);
+        ReplicationLog replication = null;
+        if (replicatePort > 0){
+            replication = new ReplicationLog(replicatePort, tables);
+            accounts = accounts.replicatedTo(replication);
+        }
 
-                executorService.execute(handler);
+        BaccaratGame game = new BaccaratGame(tables, accounts);
 
+        // a standby only starts serving once the primary it follows has gone
+        if (standbyOf != null){
+            int idx = standbyOf.lastIndexOf(':');
+            try{
+                new Standby(standbyOf.substring(0, idx), Integer.parseInt(standbyOf.substring(idx + 1)), game,
+                        accounts).follow();
+            } catch (NumberFormatException e){
+                System.out.println("Invalid primary address: " + standbyOf);
+                return;
+            } catch (InterruptedException e){
+                return;
             }
+            Log.info("Taking over as primary");
+        }
+        if (replication != null){
+            try{
+                replication.start(accounts);
+            } catch (IOException e){
+                Log.error("Error starting replication: " + e.getMessage());
+                return;
+            }
+            Metrics.watch(replication);
+        }
 
+        Admission admission = new Admission(maxConnections, rate[0], rate[1]);
+        Metrics.watch(admission);
 
+        if (nio){
+            // a handful of workers is enough, the selector thread holds the connections
+            ExecutorService workers;
+            try{
+                workers = createExecutor(executor, Runtime.getRuntime().availableProcessors(), queueCapacity);
+            } catch (IllegalArgumentException e){
+                System.out.println("Invalid executor: " + executor);
+                return;
+            }
+            admission.watch(workers);
+            NioServer server = new NioServer(port, game, workers, admission);
+            shutdown.frontEnd(() -> {
+                server.stop();
+                Shutdown.drain(workers);
+            });
+            try{
+                server.run();
             } catch (IOException e){
-                System.out.println("Error starting server: " + e.getMessage());
+                Log.error("Error starting server: " + e.getMessage());
             } finally {
+                workers.shutdown();
+            }
+            return;
+        }
+
+        // start the server with a thread pool
+        ExecutorService executorService;
+        try{
+            executorService = createExecutor(executor, 10, queueCapacity);
+        } catch (IllegalArgumentException e){
+            System.out.println("Invalid executor: " + executor);
+            return;
+        }
+        admission.watch(executorService);
+        try{
+            ServerSocket server = new ServerSocket(port);
+            shutdown.frontEnd(() -> {
+                try{
+                    server.close();
+                } catch (IOException e){
+                    // closing anyway
+                }
+                Shutdown.drain(executorService);
+            });
+            serve(server, game, executorService, admission);
+        } catch (IOException e){
+            Log.error("Error starting server: " + e.getMessage());
+        } finally {
             executorService.shutdown();
+        }
+
+    }
+
+    // fixed pool of defaultThreads unless --executor says otherwise
+    static ExecutorService createExecutor(String executor, int defaultThreads){
+        return createExecutor(executor, defaultThreads, Integer.MAX_VALUE);
+    }
+
+    // a fixed pool queues at most queueCapacity tasks and rejects the rest
+    static ExecutorService createExecutor(String executor, int defaultThreads, int queueCapacity){
+        if (executor == null){
+            return ExecutorStrategy.FIXED.create(defaultThreads, queueCapacity);
+        }
+        return ExecutorStrategy.parse(executor).create(ExecutorStrategy.parseThreads(executor, defaultThreads), queueCapacity);
+    }
+
+    // the next shoe is written next to the live files with ".next" appended and renamed over
+    // them when it goes into play, so the shoe being dealt is never touched
+    static Reshuffler.Source mappedShoes(File file, ForcePolicy policy){
+        File staged = new File(file.getPath() + ".next");
+        return new Reshuffler.Source(){
+            @Override
+            public Shoe create(byte[] cards) throws IOException {
+                return Shoe.mapped(cards, staged, policy);
+            }
+
+            @Override
+            public void activate(Shoe shoe) throws IOException {
+                // the mapping follows the file through the rename
+                Files.move(staged.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        };
+    }
+
+    static Reshuffler.Source loggedShoes(File cardsFile, File logFile){
+        File stagedCards = new File(cardsFile.getPath() + ".next");
+        File stagedLog = new File(logFile.getPath() + ".next");
+        return new Reshuffler.Source(){
+            @Override
+            public Shoe create(byte[] cards) throws IOException {
+                Shoe.writeCards(cards, stagedCards);
+                return new Shoe(cards, stagedLog);
+            }
+
+            @Override
+            public void activate(Shoe shoe) throws IOException {
+                // two renames, not one -- the cards go first, so a crash between them reopens
+                // the new cards at the old shoe's position: cards nobody has seen are skipped,
+                // cards already dealt never come out again
+                Files.move(stagedCards.toPath(), cardsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Files.move(stagedLog.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        };
+    }
+
+    // the shoe's files are checkpointed every hand, so they are as far on as the snapshot or
+    // further -- unless the table was dealing from a standby's in-memory shoe, which only the
+    // snapshot has, and which is written out again here
+    // open returns the shoe in the table's files or null if there are none, files builds one
+    // in them around the snapshot's cards
+    private static Shoe resumeShoe(String id, TableSnapshot.Entry resumed, Callable<Shoe> open, Reshuffler.Source files)
+            throws IOException {
+        Shoe shoe = null;
+        try{
+            shoe = open.call();
+        } catch (Exception e){
+            Log.warn("Error reopening the shoe of table " + id + ": " + e.getMessage());
+        }
+        if (shoe != null && Arrays.equals(shoe.cards(), resumed.cards)){
+            if (shoe.position() < resumed.position){
+                shoe.skipTo(resumed.position);
+                shoe.awaitCheckpoint(shoe.checkpoint());
+            }
+            return shoe;
+        }
+        if (shoe != null && resumed.persisted){
+            // a fresh shoe went into play after the snapshot was written
+            return shoe;
+        }
+        if (shoe != null){
+            shoe.close();
+        }
+        shoe = files.create(resumed.cards);
+        shoe.skipTo(resumed.position);
+        shoe.awaitCheckpoint(shoe.checkpoint());
+        return shoe;
+    }
+
+    // the snapshot's stats with the hands dealt after it, read back from the binary history
+    private static TableStats resumeStats(TableSnapshot.Entry resumed, File historyFile) throws IOException {
+        TableStats stats = resumed.stats;
+        File binFile = GameHistory.binaryFile(historyFile);
+        if (binFile.exists()){
+            for (Hand.Outcome outcome : GameHistory.readBinary(binFile, resumed.historyHands)){
+                stats.record(outcome);
+            }
+        }
+        return stats;
+    }
+
+    // blocking accept loop, one handler per connection
+    static void serve(ServerSocket server, BaccaratGame game, ExecutorService executorService) throws IOException {
+        serve(server, game, executorService, Admission.unlimited());
+    }
+
+    // connections over the cap, or that the pool's queue has no room for, are answered and
+    // closed right here on the accept thread
+    static void serve(ServerSocket server, BaccaratGame game, ExecutorService executorService, Admission admission)
+            throws IOException {
+        Log.info("Waiting for connections on port " + server.getLocalPort());
+        while (!server.isClosed()){
+            Socket sock;
+            try{
+                sock = server.accept();
+            } catch (SocketException e){
+                if (server.isClosed()){
+                    // shutting down
+                    return;
+                }
+                throw e;
+            }
+
+            Log.debug(() -> "Got a new connection from " + sock.getRemoteSocketAddress());
+
+            if (!admission.tryOpen()){
+                rejectBusy(sock);
+                continue;
+            }
+
+            BaccaratEngine handler = new BaccaratEngine(sock, game, admission);
+
+            try{
+                executorService.execute(() -> {
+                    try{
+                        handler.run();
+                    } finally {
+                        admission.closed();
+                    }
+                });
+            } catch (RejectedExecutionException e){
+                admission.closed();
+                admission.queueFull();
+                rejectBusy(sock);
             }
 
+        }
+    }
+
+    // the reply fits the empty send buffer of a new socket, so this never blocks
+    // ends with an empty line so a session client reads it as one response
+    private static void rejectBusy(Socket sock){
+        try{
+            OutputStream os = sock.getOutputStream();
+            os.write((Admission.BUSY + "\n\n").getBytes());
+            os.flush();
+            // closing with unread input resets the connection, which can beat the reply
+            InputStream is = sock.getInputStream();
+            is.skip(is.available());
+            sock.shutdownOutput();
+            sock.close();
+        } catch (IOException e){
+            // the client has gone already
+        }
     }
 
-    private static void resetGameHistory(){
+    private static void resetGameHistory(File file){
         try{
-            File file = new File("game_history.csv");
             FileWriter fw = new FileWriter(file, false);
             // opening the file in overwrite mode without writing anything will empty it
             fw.write("");
             fw.flush();
             fw.close();
-            System.out.println("Game history has been reset");
+            // the binary copy starts over too
+            Files.deleteIfExists(GameHistory.binaryFile(file).toPath());
+            Log.info("Game history has been reset: " + file);
         } catch (IOException e){
-            System.out.println("Error resetting game history: " + e.getMessage());
+            Log.error("Error resetting game history: " + e.getMessage());
         }
     }
 
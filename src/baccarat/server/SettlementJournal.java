@@ -0,0 +1,471 @@
+package baccarat.server;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// balances as an append-only binary journal of settlements plus a snapshot
+//   journal:  "BACJ", then records -- int body length, body, int CRC32 of the body
+//             SET         byte 1, long seq, string user, amount balance (login)
+//             HAND, MULTI_HAND  see SettlementRecord
+//   snapshot: "BACT", long last seq, int users, then per user string + amount,
+//             int recent records, then per record int body length + body
+// a stake taken for a hand that is still being dealt is never written, only the settled hand
+// with its delta, so a crash part way through a deal leaves the bet unplaced
+//
+// group commit: callers append under one lock and wait in await() for the force that covers
+// their record; one writer thread writes and forces whatever has queued up in one go
+// the writer keeps its own balances as the journal has them (stakes in flight left out), and
+// every SNAPSHOT_EVERY records writes them as the snapshot and starts the journal over, so
+// startup is one snapshot and a short tail however long the server has run
+// the last RECENT hands with a request id go into the snapshot too, so retries are still
+// recognised after a restart
+// a failed write or force fails the journal: nothing after it is written (it would land behind
+// a torn record), and await() and every later change throw instead of reporting a balance that
+// is not on disk
+class SettlementJournal implements BalanceLog {
+    private static final byte[] MAGIC = "BACJ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SNAPSHOT_MAGIC = "BACT".getBytes(StandardCharsets.US_ASCII);
+    private static final int SNAPSHOT_EVERY = 100_000;
+    static final int RECENT = 4096;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final FileChannel journal;
+    private final Thread writer;
+
+    // not synchronized -- deals wait in await() on the handler thread, and a monitor would pin
+    // the carrier thread of a virtual thread, as in ForcePolicy
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled when the queue gets a record, and when a batch is forced (or the journal fails)
+    private final Condition queued = lock.newCondition();
+    private final Condition forced = lock.newCondition();
+    // guarded by lock
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private long seq;
+    private long durable;
+    private boolean closed;
+    private IOException failed;
+
+    // writer only after startup
+    private final Map<String, BigInteger> journaled = new HashMap<>();
+    private final ArrayDeque<byte[]> recent = new ArrayDeque<>();
+    private long snapshotSeq;
+    private int sinceSnapshot;
+    // request ids read back at startup, oldest first
+    private final List<SettlementRecord> recovered = new ArrayList<>();
+
+    // one encoded record waiting for the writer
+    private static final class Pending {
+        final long seq;
+        final String username;
+        // the balance for a SET, the delta for a hand
+        final BigInteger amount;
+        final boolean set;
+        final byte[] body;
+        final boolean hasRequestId;
+
+        Pending(long seq, String username, BigInteger amount, boolean set, byte[] body, boolean hasRequestId) {
+            this.seq = seq;
+            this.username = username;
+            this.amount = amount;
+            this.set = set;
+            this.body = body;
+            this.hasRequestId = hasRequestId;
+        }
+    }
+
+    // fills balances from the snapshot and the journal
+    // legacy is the text journal of an older server, read once if there is no snapshot yet
+    SettlementJournal(File journalFile, File snapshotFile, File legacy, Map<String, BigInteger> balances)
+            throws IOException {
+        this(journalFile, snapshotFile, legacy, balances, path -> FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    SettlementJournal(File journalFile, File snapshotFile, File legacy, Map<String, BigInteger> balances,
+            BalanceLog.Opener opener) throws IOException {
+        this.journalFile = journalFile;
+        this.snapshotFile = snapshotFile;
+
+        boolean rewrite = false;
+        if (snapshotFile.exists()) {
+            readSnapshot();
+        } else if (legacy != null && legacy.exists()) {
+            BalanceJournal.replay(legacy, journaled);
+            rewrite = true;
+            Log.info("Imported " + journaled.size() + " balances from " + legacy);
+        }
+        seq = snapshotSeq;
+        rewrite |= replay();
+        durable = seq;
+        balances.putAll(journaled);
+
+        journal = opener.open(journalFile.toPath());
+        if (rewrite) {
+            // start this run from one snapshot
+            snapshot();
+        } else if (journal.size() == 0) {
+            journal.write(ByteBuffer.wrap(MAGIC));
+        }
+
+        writer = new Thread(this::run, "settlement-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void readSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            byte[] header = new byte[SNAPSHOT_MAGIC.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, SNAPSHOT_MAGIC)) {
+                throw new IOException("Not a settlement snapshot: " + snapshotFile);
+            }
+            snapshotSeq = in.readLong();
+            int users = in.readInt();
+            for (int i = 0; i < users; i++) {
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                byte[] amount = new byte[in.readUnsignedByte()];
+                in.readFully(amount);
+                journaled.put(new String(name, StandardCharsets.UTF_8), new BigInteger(amount));
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                remember(body);
+                ByteBuffer buf = ByteBuffer.wrap(body);
+                recovered.add(SettlementRecord.read(buf.get(), buf));
+            }
+        }
+    }
+
+    // applies the records after the snapshot, in one sequential read
+    // a torn record at the end (crash mid-write) is cut off
+    // returns true if there was anything to apply
+    private boolean replay() throws IOException {
+        if (!journalFile.exists() || journalFile.length() == 0) {
+            return false;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+        byte[] header = new byte[MAGIC.length];
+        buf.get(header);
+        if (!Arrays.equals(header, MAGIC)) {
+            throw new IOException("Not a settlement journal: " + journalFile);
+        }
+        CRC32 crc = new CRC32();
+        int applied = 0;
+        int good = buf.position();
+        while (buf.remaining() >= 4) {
+            int length = buf.getInt();
+            if (length < 9 || length + 4 > buf.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buf.array(), buf.position(), length);
+            if ((int) crc.getValue() != buf.getInt(buf.position() + length)) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buf.get(body);
+            buf.getInt();
+            good = buf.position();
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long recordSeq = record.getLong(record.position());
+            if (recordSeq <= snapshotSeq) {
+                // already in the snapshot, the journal was not cut after it
+                continue;
+            }
+            seq = recordSeq;
+            applied++;
+            if (type == SettlementRecord.SET) {
+                record.getLong();
+                journaled.put(BinaryProtocol.getString(record), BinaryProtocol.getAmount(record));
+            } else {
+                SettlementRecord settled = SettlementRecord.read(type, record);
+                journaled.merge(settled.username, settled.delta, BigInteger::add);
+                if (settled.requestId != null) {
+                    remember(body);
+                    recovered.add(settled);
+                }
+            }
+        }
+        if (good < buf.limit()) {
+            Log.warn("Cutting " + (buf.limit() - good) + " torn bytes off " + journalFile);
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        while (recovered.size() > RECENT) {
+            recovered.remove(0);
+        }
+        return applied > 0;
+    }
+
+    private void remember(byte[] body) {
+        recent.add(body);
+        if (recent.size() > RECENT) {
+            recent.poll();
+        }
+    }
+
+    // names and amounts have the length prefixes of SettlementRecord, in the journal and the
+    // snapshot alike
+    @Override
+    public String unfit(String username, BigInteger balance) {
+        if (username.getBytes(StandardCharsets.UTF_8).length > SettlementRecord.MAX_STRING) {
+            return "usernames are limited to " + SettlementRecord.MAX_STRING + " bytes";
+        }
+        if (balance.toByteArray().length > SettlementRecord.MAX_AMOUNT) {
+            return "balances are limited to " + SettlementRecord.MAX_AMOUNT + " bytes";
+        }
+        return null;
+    }
+
+    @Override
+    public List<SettlementRecord> recovered() {
+        return recovered;
+    }
+
+    // login -- the balance is set outright
+    @Override
+    public long record(String username, BigInteger balance) {
+        lock.lock();
+        try {
+            checkFailed();
+            long s = ++seq;
+            ByteBuffer buf = ByteBuffer.allocate(1 + 8 + 2 + 4 * username.length() + 1 + balance.bitLength() / 8 + 1);
+            buf.put(SettlementRecord.SET);
+            buf.putLong(s);
+            SettlementRecord.putString(buf, username);
+            SettlementRecord.putAmount(buf, balance);
+            enqueue(new Pending(s, username, balance, true, Arrays.copyOf(buf.array(), buf.position()), false));
+            return s;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // stakes are not journaled, only what the hand settled to
+    // but no new deal starts on a failed journal, it could not be settled
+    @Override
+    public long reserved(String username, BigInteger balance) {
+        lock.lock();
+        try {
+            checkFailed();
+        } finally {
+            lock.unlock();
+        }
+        return 0;
+    }
+
+    // every hand gets the next seq, its hand id
+    @Override
+    public long settled(String username, BigInteger balance, boolean changed, List<SettlementRecord> records) {
+        lock.lock();
+        try {
+            checkFailed();
+            for (SettlementRecord record : records) {
+                record.seq = ++seq;
+                ByteBuffer buf = ByteBuffer.allocate(record.maxSize());
+                record.write(buf);
+                enqueue(new Pending(record.seq, username, record.delta, false,
+                        Arrays.copyOf(buf.array(), buf.position()), record.requestId != null));
+            }
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds lock
+    private void enqueue(Pending pending) {
+        if (queue.isEmpty()) {
+            queued.signal();
+        }
+        queue.add(pending);
+    }
+
+    // caller holds lock -- thrown inside the store's compute(), so the balance is left alone
+    private void checkFailed() {
+        if (failed != null) {
+            throw new UncheckedIOException("Settlement journal failed", failed);
+        }
+    }
+
+    @Override
+    public void await(long ticket) {
+        lock.lock();
+        try {
+            while (durable < ticket && !closed && failed == null) {
+                forced.await();
+            }
+            if (durable < ticket) {
+                checkFailed();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    queued.await();
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch.addAll(queue);
+                queue.clear();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            int size = 0;
+            for (Pending pending : batch) {
+                size += 8 + pending.body.length;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            for (Pending pending : batch) {
+                crc.reset();
+                crc.update(pending.body);
+                buf.putInt(pending.body.length);
+                buf.put(pending.body);
+                buf.putInt((int) crc.getValue());
+            }
+            buf.flip();
+            try {
+                while (buf.hasRemaining()) {
+                    journal.write(buf);
+                }
+                // one force for every record in the batch
+                journal.force(false);
+            } catch (IOException e) {
+                Log.error("Error writing settlement journal: " + e.getMessage());
+                lock.lock();
+                try {
+                    failed = e;
+                    forced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            // only what is on disk goes into the next snapshot
+            for (Pending pending : batch) {
+                if (pending.set) {
+                    journaled.put(pending.username, pending.amount);
+                } else {
+                    journaled.merge(pending.username, pending.amount, BigInteger::add);
+                    if (pending.hasRequestId) {
+                        remember(pending.body);
+                    }
+                }
+            }
+            long last = batch.get(batch.size() - 1).seq;
+            lock.lock();
+            try {
+                durable = last;
+                forced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            sinceSnapshot += batch.size();
+            batch.clear();
+            if (sinceSnapshot >= SNAPSHOT_EVERY) {
+                snapshotSeq = last;
+                snapshot();
+            }
+        }
+    }
+
+    // writer only (or before it starts) -- snapshotSeq covers everything in journaled
+    // the snapshot replaces the old one in a single rename, then the journal starts over;
+    // a crash in between leaves records the snapshot already has, which replay skips
+    private void snapshot() {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.write(SNAPSHOT_MAGIC);
+                out.writeLong(Math.max(snapshotSeq, durableSeq()));
+                out.writeInt(journaled.size());
+                for (Map.Entry<String, BigInteger> entry : journaled.entrySet()) {
+                    byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    byte[] amount = entry.getValue().toByteArray();
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeByte(amount.length);
+                    out.write(amount);
+                }
+                out.writeInt(recent.size());
+                for (byte[] body : recent) {
+                    out.writeInt(body.length);
+                    out.write(body);
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            journal.truncate(0);
+            journal.write(ByteBuffer.wrap(MAGIC));
+            journal.force(false);
+            sinceSnapshot = 0;
+        } catch (IOException e) {
+            Log.error("Error writing settlement snapshot: " + e.getMessage());
+        }
+    }
+
+    private long durableSeq() {
+        lock.lock();
+        try {
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // write out what is still queued, take a snapshot so the next start has no tail to replay
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queued.signal();
+            forced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+            snapshotSeq = durableSeq();
+            snapshot();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("Error closing settlement journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package baccarat.server;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// one settled hand as the settlement journal keeps it
+//   byte type (HAND or MULTI_HAND), long seq (the hand id), string user, string request id
+//   (empty for none), string table, byte side, amount bet, amount delta, amount balance after,
+//   byte player count, 3 player cards, byte banker count, 3 banker cards
+// strings are a short length and UTF-8, amounts a byte length and two's complement, as in
+// BinaryProtocol; unused card slots are -1
+// delta is what the hand did to the balance (payout minus stake), and is what replay adds up --
+// the balance after is only kept to answer a retried request the same way as the first time
+public final class SettlementRecord {
+    static final byte SET = 1;
+    static final byte HAND = 2;
+    // one hand of a multideal, the batch shares its request id
+    static final byte MULTI_HAND = 3;
+    // widest string and amount the length prefixes can describe
+    static final int MAX_STRING = 0xFFFF;
+    static final int MAX_AMOUNT = 0xFF;
+
+    final byte type;
+    // assigned by the journal, the hand id
+    long seq;
+    final String username;
+    final String requestId;
+    final String table;
+    final char side;
+    final BigInteger bet;
+    final BigInteger delta;
+    // set by AccountStore.settle(), after the payout is credited
+    BigInteger balance;
+    final byte[] playerCards = new byte[3];
+    final byte[] bankerCards = new byte[3];
+    final int playerCount;
+    final int bankerCount;
+
+    private SettlementRecord(byte type, long seq, String username, String requestId, String table, char side,
+            BigInteger bet, BigInteger delta, BigInteger balance, byte[] player, int playerCount, byte[] banker,
+            int bankerCount) {
+        this.type = type;
+        this.seq = seq;
+        this.username = username;
+        this.requestId = requestId;
+        this.table = table;
+        this.side = side;
+        this.bet = bet;
+        this.delta = delta;
+        this.balance = balance;
+        this.playerCount = playerCount;
+        this.bankerCount = bankerCount;
+        System.arraycopy(player, 0, playerCards, 0, playerCount);
+        System.arraycopy(banker, 0, bankerCards, 0, bankerCount);
+    }
+
+    // requestId may be null
+    public static SettlementRecord of(boolean multi, String username, String requestId, String table, String side,
+            BigInteger bet, BigInteger payout, Hand hand) {
+        return new SettlementRecord(multi ? MULTI_HAND : HAND, -1, username, requestId, table,
+                (side.length() == 1) ? side.charAt(0) : '?', bet, payout.subtract(bet), null, hand.playerCards,
+                hand.playerCount, hand.bankerCards, hand.bankerCount);
+    }
+
+    // the stake plus the delta
+    BigInteger payout() {
+        return bet.add(delta);
+    }
+
+    // the cards back into a Hand, points and outcome recomputed
+    void restore(Hand hand) {
+        hand.restore(playerCards, playerCount, bankerCards, bankerCount);
+    }
+
+    void write(ByteBuffer buf) {
+        buf.put(type);
+        buf.putLong(seq);
+        putString(buf, username);
+        putString(buf, (requestId == null) ? "" : requestId);
+        putString(buf, table);
+        buf.put((byte) side);
+        putAmount(buf, bet);
+        putAmount(buf, delta);
+        putAmount(buf, balance);
+        putCards(buf, playerCards, playerCount);
+        putCards(buf, bankerCards, bankerCount);
+    }
+
+    // after the type byte has been read
+    static SettlementRecord read(byte type, ByteBuffer buf) {
+        long seq = buf.getLong();
+        String username = BinaryProtocol.getString(buf);
+        String requestId = BinaryProtocol.getString(buf);
+        String table = BinaryProtocol.getString(buf);
+        char side = (char) buf.get();
+        BigInteger bet = BinaryProtocol.getAmount(buf);
+        BigInteger delta = BinaryProtocol.getAmount(buf);
+        BigInteger balance = BinaryProtocol.getAmount(buf);
+        byte[] player = new byte[3];
+        byte[] banker = new byte[3];
+        int playerCount = getCards(buf, player);
+        int bankerCount = getCards(buf, banker);
+        return new SettlementRecord(type, seq, username, requestId.isEmpty() ? null : requestId, table, side, bet,
+                delta, balance, player, playerCount, banker, bankerCount);
+    }
+
+    // upper bound on the encoded size
+    int maxSize() {
+        return 1 + 8 + 3 * 2 + 4 * (username.length() + table.length() + ((requestId == null) ? 0 : requestId.length()))
+                + 1 + 3 * 256 + 8;
+    }
+
+    // the stores ask unfit() first, these throws are a backstop
+    static void putString(ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING) {
+            throw new IllegalArgumentException("String too long to encode: " + bytes.length + " bytes");
+        }
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+    }
+
+    static void putAmount(ByteBuffer buf, BigInteger amount) {
+        byte[] bytes = amount.toByteArray();
+        if (bytes.length > MAX_AMOUNT) {
+            throw new IllegalArgumentException("Amount too large to encode: " + bytes.length + " bytes");
+        }
+        buf.put((byte) bytes.length);
+        buf.put(bytes);
+    }
+
+    private static void putCards(ByteBuffer buf, byte[] cards, int count) {
+        buf.put((byte) count);
+        for (int i = 0; i < 3; i++) {
+            buf.put(i < count ? cards[i] : -1);
+        }
+    }
+
+    private static int getCards(ByteBuffer buf, byte[] cards) {
+        int count = buf.get();
+        for (int i = 0; i < 3; i++) {
+            cards[i] = buf.get();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,294 @@
+package baccarat.server;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// process-wide shoe shared by every handler
+// cards are dealt from memory by moving a cursor forward instead of removing them from a list,
+// and the cursor is appended to a log after each hand instead of rewriting "cards.db"
+//
+// a mapped shoe keeps cards and cursor in one fixed-layout file instead:
+//   "BACM", int card count, int cursor, 4 bytes reserved, then one byte per card
+// the cursor is rewritten in place after each hand and forced as the ForcePolicy says
+public class Shoe {
+    // "cards.db" starts with these bytes, then the card count and one byte per card
+    // files without it are the old text format, one "10.3" per line
+    private static final byte[] MAGIC = "BACS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MAPPED_MAGIC = "BACM".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAPPED_CURSOR = 8;
+    private static final int MAPPED_HEADER = 16;
+
+    private final byte[] cards;
+    private int cursor;
+    // null for an in-memory or mapped shoe
+    private final BufferedWriter log;
+    // only for a mapped shoe
+    private final MappedByteBuffer mapped;
+    private final ForcePolicy.Forcer forcer;
+    // not synchronized -- checkpoint() writes to the log while holding the lock,
+    // which would pin the carrier thread of a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // start a fresh shoe -- the log of consumed positions is truncated
+    public Shoe(byte[] cards, File logFile) throws IOException {
+        this(cards, 0, logFile, false);
+    }
+
+    // in-memory only, nothing is logged -- for simulations and benchmarks
+    public Shoe(byte[] cards) {
+        this(cards, 0, null, null, null);
+    }
+
+    private Shoe(byte[] cards, int cursor, File logFile, boolean append) throws IOException {
+        this(cards, cursor, new BufferedWriter(new FileWriter(logFile, append)), null, null);
+    }
+
+    private Shoe(byte[] cards, int cursor, BufferedWriter log, MappedByteBuffer mapped, ForcePolicy.Forcer forcer) {
+        this.cards = cards;
+        this.cursor = cursor;
+        this.log = log;
+        this.mapped = mapped;
+        this.forcer = forcer;
+    }
+
+    // start a fresh mapped shoe -- the whole file is written and forced once, then only the
+    // cursor changes
+    public static Shoe mapped(byte[] cards, File file, ForcePolicy policy) throws IOException {
+        MappedByteBuffer buf = map(file, MAPPED_HEADER + cards.length, true);
+        buf.put(0, MAPPED_MAGIC);
+        buf.putInt(4, cards.length);
+        buf.putInt(MAPPED_CURSOR, 0);
+        buf.put(MAPPED_HEADER, cards);
+        buf.force();
+        return new Shoe(cards, 0, null, buf, startForcer(file, buf, policy));
+    }
+
+    // reopen a mapped shoe where its cursor says
+    public static Shoe openMapped(File file, ForcePolicy policy) throws IOException {
+        MappedByteBuffer buf = map(file, (int) file.length(), false);
+        byte[] header = new byte[MAPPED_MAGIC.length];
+        buf.get(0, header);
+        if (!Arrays.equals(header, MAPPED_MAGIC)) {
+            throw new IOException("Not a mapped shoe file: " + file);
+        }
+        byte[] cards = new byte[buf.getInt(4)];
+        buf.get(MAPPED_HEADER, cards);
+        int cursor = Math.min(buf.getInt(MAPPED_CURSOR), cards.length);
+        return new Shoe(cards, cursor, null, buf, startForcer(file, buf, policy));
+    }
+
+    private static MappedByteBuffer map(File file, int size, boolean truncate) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (truncate) {
+                channel.truncate(0);
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static ForcePolicy.Forcer startForcer(File file, MappedByteBuffer buf, ForcePolicy policy) {
+        return policy.start("shoe-force-" + file.getName(), buf::force, buf::force);
+    }
+
+    // reopen a shoe from "cards.db" and skip the cards already recorded in the log
+    public static Shoe load(File cardsFile, File logFile) throws IOException {
+        byte[] cards = readCards(cardsFile);
+
+        // the last line of the log is the latest cursor
+        int cursor = 0;
+        if (logFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        cursor = Integer.parseInt(line.trim());
+                    }
+                }
+            }
+        }
+        return new Shoe(cards, Math.min(cursor, cards.length), logFile, true);
+    }
+
+    public static void writeCards(byte[] cards, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(MAGIC);
+            out.writeInt(cards.length);
+            out.write(cards);
+        }
+    }
+
+    // reads both the binary format and the old text format
+    public static byte[] readCards(File file) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int n = in.read(header);
+            if (n == MAGIC.length && Arrays.equals(header, MAGIC)) {
+                byte[] cards = new byte[in.readInt()];
+                in.readFully(cards);
+                return cards;
+            }
+        }
+
+        ByteArrayOutputStream cards = new ByteArrayOutputStream();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    cards.write(Cards.parse(line));
+                }
+            }
+        }
+        return cards.toByteArray();
+    }
+
+    // deal again from the first card, for an in-memory shoe whose cards the owner has reshuffled
+    void reset() {
+        lock.lock();
+        try {
+            cursor = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // carry on from the given position, for a standby following the primary's shoe
+    void skipTo(int position) {
+        lock.lock();
+        try {
+            cursor = Math.min(position, cards.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the cards in dealing order, not a copy -- they never change once the shoe is filled
+    byte[] cards() {
+        return cards;
+    }
+
+    // false for an in-memory shoe, whose position lives nowhere but in a table snapshot
+    boolean persisted() {
+        return log != null || mapped != null;
+    }
+
+    // cards dealt so far
+    int position() {
+        lock.lock();
+        try {
+            return cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // callers dealing a whole hand should hold the lock
+    // so that no other hand can take cards in between
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    // cards in the shoe when it was filled
+    public int size() {
+        return cards.length;
+    }
+
+    public int remaining() {
+        lock.lock();
+        try {
+            return cards.length - cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public byte next() {
+        lock.lock();
+        try {
+            if (cursor >= cards.length) {
+                throw new IllegalStateException("Shoe is empty");
+            }
+            return cards[cursor++];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // record the consumed position -- one short line per hand, or the cursor in place
+    // may be called holding the lock, returns a ticket for awaitCheckpoint()
+    public long checkpoint() {
+        if (mapped == null && log == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Metrics.ShoePersistEvent event = new Metrics.ShoePersistEvent();
+        event.begin();
+        long ticket = persist();
+        Metrics.Timer.SHOE_PERSIST.record(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.cursor = cursor;
+            event.commit();
+        }
+        return ticket;
+    }
+
+    // wait until the checkpoint behind the ticket is forced, if the policy waits for forces
+    // call it after unlocking the shoe, and off the table's loop, so the hands that queue up
+    // meanwhile share one force
+    public void awaitCheckpoint(long ticket) {
+        if (forcer != null) {
+            forcer.await(ticket);
+        }
+    }
+
+    private long persist() {
+        if (mapped != null) {
+            lock.lock();
+            try {
+                mapped.putInt(MAPPED_CURSOR, cursor);
+                return forcer.written(MAPPED_CURSOR, 4);
+            } finally {
+                lock.unlock();
+            }
+        }
+        lock.lock();
+        try {
+            log.write(Integer.toString(cursor));
+            log.newLine();
+            log.flush();
+        } catch (IOException e) {
+            Log.error("Error writing to shoe log: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        return 0;
+    }
+
+    // a mapped shoe forces what is left and stops its force thread, a logged shoe closes its log
+    public void close() {
+        if (forcer != null) {
+            forcer.close();
+        }
+        if (log != null) {
+            lock.lock();
+            try {
+                log.close();
+            } catch (IOException e) {
+                Log.error("Error closing shoe log: " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package baccarat.server;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// the server's one shutdown hook -- hooks of their own would all run at once, in no set order,
+// so a snapshot could be taken from a shoe being closed, or the accounts closed under a deal
+// that is still settling
+// in order: stop the front-end (no new commands), let each table finish what is queued on its
+// loop and close its shoe, write the table snapshot, then close the game histories and the
+// account store
+// the parts are handed over as the server opens them, anything not opened yet is skipped
+final class Shutdown implements Runnable {
+    // how long the commands already running get to finish
+    private static final long DRAIN_MILLIS = 1000;
+
+    private final List<Table> tables;
+    private volatile Runnable frontEnd;
+    private volatile TableSnapshot snapshot;
+    private volatile AccountStore accounts;
+
+    Shutdown(List<Table> tables) {
+        this.tables = tables;
+    }
+
+    // stops taking connections and waits (for a while) for the commands already running
+    void frontEnd(Runnable stop) {
+        frontEnd = stop;
+    }
+
+    // lets the pool finish the commands it is running, without interrupting them -- a blocking
+    // connection idle in a read never finishes, it is left to the exit once DRAIN_MILLIS is up
+    static void drain(ExecutorService pool) {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void snapshot(TableSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    void accounts(AccountStore accounts) {
+        this.accounts = accounts;
+    }
+
+    @Override
+    public void run() {
+        Runnable stop = frontEnd;
+        if (stop != null) {
+            stop.run();
+        }
+        for (Table table : tables) {
+            try {
+                table.close();
+            } catch (RuntimeException e) {
+                Log.error("Error closing table " + table.id() + ": " + e.getMessage());
+            }
+        }
+        TableSnapshot s = snapshot;
+        if (s != null) {
+            s.write();
+        }
+        for (Table table : tables) {
+            table.history().close();
+        }
+        AccountStore a = accounts;
+        if (a != null) {
+            a.close();
+        }
+    }
+}
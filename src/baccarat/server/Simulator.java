@@ -0,0 +1,188 @@
+package baccarat.server;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// headless Monte Carlo run of the game's own drawing rules (Hand.deal and Cards.points)
+// every worker has its own SplittableRandom and in-memory shoe, and reshuffles when the shoe
+// is down to the cut card, the way the server's Reshuffler replaces a table's shoe (both
+// default to 14 cards)
+//
+// hands are only counted by how they ended (player, banker, banker with 6, draw), so the edge
+// of any payout table comes from the same counts without dealing again
+// the confidence intervals treat hands as independent, which hands from one shoe are not
+// quite, so read them as a little narrow
+//
+// usage: java -cp classes baccarat.server.Simulator [--hands=100000000] [--decks=8] [--cut=14]
+//          [--seed=1] [--banker=1] [--six=2] [--player=1] [--tie=8]
+// payout flags are "to 1" and are compared against the standard table
+public class Simulator {
+    private static final int PLAYER = 0;
+    private static final int BANKER = 1;
+    private static final int BANKER_SIX = 2;
+    private static final int DRAW = 3;
+    private static final int CATEGORIES = 4;
+
+    private static final char[] SIDES = { 'B', 'P', 'D' };
+    private static final String[] SIDE_NAMES = { "Banker", "Player", "Tie" };
+    // two-sided 95%
+    private static final double Z = 1.96;
+
+    public static void main(String[] args) {
+        long hands = 100_000_000L;
+        int decks = 8;
+        int cut = 14;
+        long seed = System.nanoTime();
+        int[] standard = { Payouts.STANDARD.banker, Payouts.STANDARD.bankerSix, Payouts.STANDARD.player,
+                Payouts.STANDARD.tie };
+        int[] payouts = standard.clone();
+        try {
+            for (String arg : args) {
+                int idx = arg.indexOf('=');
+                if (!arg.startsWith("--") || idx < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                String value = arg.substring(idx + 1);
+                switch (arg.substring(2, idx)) {
+                    case "hands":
+                        hands = Long.parseLong(value);
+                        break;
+                    case "decks":
+                        decks = Integer.parseInt(value);
+                        break;
+                    case "cut":
+                        cut = Integer.parseInt(value);
+                        break;
+                    case "seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "banker":
+                        payouts[0] = Integer.parseInt(value);
+                        break;
+                    case "six":
+                        payouts[1] = Integer.parseInt(value);
+                        break;
+                    case "player":
+                        payouts[2] = Integer.parseInt(value);
+                        break;
+                    case "tie":
+                        payouts[3] = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            System.out.println("Usage: java -cp classes baccarat.server.Simulator [--hands=n] [--decks=n] [--cut=n]"
+                    + " [--seed=n] [--banker=n] [--six=n] [--player=n] [--tie=n]");
+            return;
+        }
+
+        long start = System.nanoTime();
+        long[] counts = run(hands, decks, cut, seed);
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        PrintStream out = System.out;
+        out.printf("%d hands, %d decks, cut card at %d, seed %d, %d workers, %.1fs (%.1fM hands/s)%n", hands, decks,
+                cut, seed, Runtime.getRuntime().availableProcessors(), elapsedMillis / 1000.0,
+                hands / 1000.0 / elapsedMillis);
+        report(counts, Payouts.STANDARD, out);
+        if (!Arrays.equals(payouts, standard)) {
+            out.println();
+            report(counts, new Payouts(payouts[0], payouts[1], payouts[2], payouts[3]), out);
+        }
+    }
+
+    // counts per category over all hands, split into chunks on the common fork/join pool
+    // the same seed gives the same counts however the chunks are scheduled
+    public static long[] run(long hands, int decks, int cut, long seed) {
+        int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int i = 0; i < chunks; i++) {
+            randoms[i] = root.split();
+        }
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(i -> simulate(hands / chunks + ((i < hands % chunks) ? 1 : 0), decks, cut, randoms[i]))
+                .reduce(new long[CATEGORIES], Simulator::add);
+    }
+
+    // one worker -- no locking, no output
+    static long[] simulate(long hands, int decks, int cut, SplittableRandom random) {
+        byte[] cards = Cards.shuffled(decks, random);
+        Shoe shoe = new Shoe(cards);
+        Hand hand = new Hand();
+        long[] counts = new long[CATEGORIES];
+
+        // the shoe is this worker's alone, holding its lock throughout makes every
+        // next() a reentrant acquire
+        shoe.lock();
+        try {
+            long dealt = 0;
+            while (dealt < hands) {
+                if (shoe.remaining() <= cut || !hand.deal(shoe)) {
+                    Cards.shuffle(cards, random);
+                    shoe.reset();
+                    continue;
+                }
+                counts[category(hand)]++;
+                dealt++;
+            }
+        } finally {
+            shoe.unlock();
+        }
+        return counts;
+    }
+
+    private static int category(Hand hand) {
+        switch (hand.outcome) {
+            case PLAYER:
+                return PLAYER;
+            case BANKER:
+                return hand.isSixCardRule() ? BANKER_SIX : BANKER;
+            default:
+                return DRAW;
+        }
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] sum = new long[CATEGORIES];
+        for (int i = 0; i < CATEGORIES; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    public static void report(long[] counts, Payouts payouts, PrintStream out) {
+        long n = Arrays.stream(counts).sum();
+        out.println("Payouts: " + payouts);
+        out.printf("Outcomes: banker %.4f%% (with 6 points %.4f%%), player %.4f%%, draw %.4f%%%n",
+                100.0 * (counts[BANKER] + counts[BANKER_SIX]) / n, 100.0 * counts[BANKER_SIX] / n,
+                100.0 * counts[PLAYER] / n, 100.0 * counts[DRAW] / n);
+        out.printf("%-8s %12s %24s%n", "bet", "house edge", "95% confidence");
+        for (int s = 0; s < SIDES.length; s++) {
+            double[] edge = houseEdge(counts, payouts, SIDES[s]);
+            out.printf("%-8s %11.4f%% %11.4f%% .. %7.4f%%%n", SIDE_NAMES[s], 100 * edge[0],
+                    100 * (edge[0] - edge[1]), 100 * (edge[0] + edge[1]));
+        }
+    }
+
+    // { house edge, half width of the 95% interval }, both per unit staked
+    public static double[] houseEdge(long[] counts, Payouts payouts, char side) {
+        Hand.Outcome[] outcomes = { Hand.Outcome.PLAYER, Hand.Outcome.BANKER, Hand.Outcome.BANKER, Hand.Outcome.DRAW };
+        double n = Arrays.stream(counts).sum();
+        double mean = 0;
+        double meanSquare = 0;
+        for (int c = 0; c < CATEGORIES; c++) {
+            // what the player wins or loses on one unit
+            int net = payouts.returned(outcomes[c], c == BANKER_SIX, side) - 1;
+            mean += counts[c] * net / n;
+            meanSquare += counts[c] * (double) net * net / n;
+        }
+        double variance = meanSquare - mean * mean;
+        return new double[] { -mean, Z * Math.sqrt(variance / n) };
+    }
+}
@@ -0,0 +1,168 @@
+package baccarat.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// the standby's side of replication, see ReplicationLog for the stream
+// follows a primary -- applying balances to its own store and journal, and shoes and hands to
+// its own tables -- until the primary goes quiet, then returns so the server can take over
+// quiet means the connection closed, or no frame (not even a heartbeat) for FAILOVER_MS
+// there is no fencing: a primary that is only stalled for that long has a standby take over
+// while it still runs
+final class Standby {
+    static final int FAILOVER_MS = 500;
+    private static final int RETRY_MS = 200;
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private final String host;
+    private final int port;
+    private final BaccaratGame game;
+    private final AccountStore accounts;
+    private final Hand.Outcome[] outcomes = Hand.Outcome.values();
+
+    Standby(String host, int port, BaccaratGame game, AccountStore accounts) {
+        this.host = host;
+        this.port = port;
+        this.game = game;
+        this.accounts = accounts;
+    }
+
+    // returns once a primary that this standby was in sync with has gone away
+    void follow() throws InterruptedException {
+        Log.info("Standby for " + host + ":" + port);
+        boolean waiting = false;
+        while (true) {
+            try (Socket sock = new Socket()) {
+                sock.connect(new InetSocketAddress(host, port), FAILOVER_MS);
+                sock.setTcpNoDelay(true);
+                sock.setSoTimeout(FAILOVER_MS);
+                waiting = false;
+                if (apply(sock)) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (!waiting) {
+                    Log.info("Waiting for the primary at " + host + ":" + port + ": " + e.getMessage());
+                    waiting = true;
+                }
+            }
+            Thread.sleep(RETRY_MS);
+        }
+    }
+
+    // true when the primary is gone after a full sync, false to connect again
+    private boolean apply(Socket sock) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream(), 64 * 1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        boolean synced = false;
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < 1 || length > MAX_FRAME) {
+                    throw new IOException("Bad frame length from primary: " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                ByteBuffer buf = ByteBuffer.wrap(frame);
+                byte type = buf.get();
+                switch (type) {
+                    case ReplicationLog.BALANCE: {
+                        String username = BinaryProtocol.getString(buf);
+                        accounts.set(username, BinaryProtocol.getAmount(buf));
+                        break;
+                    }
+                    case ReplicationLog.SETTLED: {
+                        int count = buf.getShort();
+                        List<SettlementRecord> records = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            records.add(SettlementRecord.read(buf.get(), buf));
+                        }
+                        game.applySettled(records);
+                        break;
+                    }
+                    case ReplicationLog.TABLE: {
+                        Table table = table(BinaryProtocol.getString(buf));
+                        int position = buf.getInt();
+                        byte[] cards = new byte[buf.getInt()];
+                        buf.get(cards);
+                        Hand.Outcome[] recent = readOutcomes(buf);
+                        table.call(() -> {
+                            table.follow(cards, position, recent);
+                            return null;
+                        });
+                        break;
+                    }
+                    case ReplicationLog.SHOE: {
+                        Table table = table(BinaryProtocol.getString(buf));
+                        byte[] cards = new byte[buf.getInt()];
+                        buf.get(cards);
+                        table.call(() -> {
+                            table.followShoe(cards);
+                            return null;
+                        });
+                        break;
+                    }
+                    case ReplicationLog.HANDS: {
+                        Table table = table(BinaryProtocol.getString(buf));
+                        int position = buf.getInt();
+                        Hand.Outcome[] dealt = readOutcomes(buf);
+                        table.call(() -> {
+                            table.followHands(position, dealt);
+                            return null;
+                        });
+                        break;
+                    }
+                    case ReplicationLog.SYNCED:
+                        synced = true;
+                        Log.info("Standby in sync with the primary at " + host + ":" + port);
+                        break;
+                    case ReplicationLog.BATCH:
+                        // applied, and as durable as the local store makes it
+                        out.writeInt(9);
+                        out.writeByte(ReplicationLog.ACK);
+                        out.writeLong(buf.getLong());
+                        out.flush();
+                        break;
+                    case ReplicationLog.HEARTBEAT:
+                        break;
+                    case ReplicationLog.RESYNC:
+                        Log.warn("Fell behind the primary, starting over");
+                        return false;
+                    default:
+                        throw new IOException("Unknown frame from primary: " + type);
+                }
+            }
+        } catch (SocketTimeoutException | EOFException e) {
+            if (synced) {
+                Log.warn("Primary at " + host + ":" + port + " has gone quiet, taking over");
+            }
+            return synced;
+        } catch (IOException e) {
+            if (synced) {
+                Log.warn("Lost the primary at " + host + ":" + port + " (" + e.getMessage() + "), taking over");
+            }
+            return synced;
+        }
+    }
+
+    private Table table(String id) throws IOException {
+        Table table = game.table(id);
+        if (table == null) {
+            throw new IOException("Primary has a table this server does not: " + id);
+        }
+        return table;
+    }
+
+    private Hand.Outcome[] readOutcomes(ByteBuffer buf) {
+        Hand.Outcome[] read = new Hand.Outcome[buf.getInt()];
+        for (int i = 0; i < read.length; i++) {
+            read[i] = outcomes[buf.get()];
+        }
+        return read;
+    }
+}
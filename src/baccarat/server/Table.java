@@ -0,0 +1,187 @@
+package baccarat.server;
+
+import java.util.concurrent.*;
+
+// one named table with its own shoe, history and stats
+// every deal for a table runs on the single event loop the table is pinned to, so the
+// shoe and history only ever have one writer and tables never wait on each other
+// several tables can share a loop when there are more tables than cores
+// with a Reshuffler the shoe is replaced at the cut card, without one it deals until empty
+public class Table {
+    private final String id;
+    // replaced on the loop, read from anywhere
+    private volatile Shoe shoe;
+    private final GameHistory history;
+    // null when the shoe is never replaced
+    private final Reshuffler reshuffler;
+    // only touched on the loop, started over when a standby syncs with its primary, taken from
+    // the table snapshot at startup
+    private TableStats stats = new TableStats();
+    // loop only, null unless a standby may follow this table
+    private ReplicationLog replication;
+    // published to on the loop
+    private final Broadcast broadcast = new Broadcast();
+    private final ExecutorService loop;
+    // set on the loop by close(), no task runs after it
+    private volatile boolean closed;
+
+    public Table(String id, Shoe shoe, GameHistory history, ExecutorService loop) {
+        this(id, shoe, history, loop, null);
+    }
+
+    Table(String id, Shoe shoe, GameHistory history, ExecutorService loop, Reshuffler reshuffler) {
+        this.id = id;
+        this.shoe = shoe;
+        this.history = history;
+        this.loop = loop;
+        this.reshuffler = reshuffler;
+    }
+
+    // one single-threaded loop per core, tables are handed out round robin by the caller
+    public static ExecutorService[] newLoops(int count) {
+        ExecutorService[] loops = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String name = "table-loop-" + i;
+            loops[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return loops;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public int decks() {
+        return shoe.size() / Cards.DECK_SIZE;
+    }
+
+    Shoe shoe() {
+        return shoe;
+    }
+
+    // loop only -- the shoe to deal the next hand from, swapping in the pre-shuffled one if
+    // the current one has reached the cut card
+    Shoe shoeForHand() {
+        Shoe current = shoe;
+        if (reshuffler == null || !reshuffler.due(current)) {
+            return current;
+        }
+        Shoe fresh = reshuffler.take();
+        if (fresh == null) {
+            // keep dealing what is left
+            return current;
+        }
+        shoe = fresh;
+        reshuffler.retire(current);
+        if (replication != null) {
+            replication.shoe(this, fresh);
+        }
+        Log.info("Table " + id + ": new shoe, " + current.remaining() + " cards left in the old one");
+        return fresh;
+    }
+
+    // loop only -- stop dealing from this shoe, shoeForHand() has a fresh one
+    boolean cutCardReached(Shoe shoe) {
+        return reshuffler != null && reshuffler.due(shoe);
+    }
+
+    // at shutdown
+    // at shutdown, after what is already queued on the loop: closes the shoe, and any later
+    // call() is refused -- the loop has nothing running from then on
+    void close() {
+        call(() -> {
+            closed = true;
+            shoe.close();
+            return null;
+        });
+    }
+
+    boolean closed() {
+        return closed;
+    }
+
+    // loop only
+    TableStats stats() {
+        return stats;
+    }
+
+    Broadcast broadcast() {
+        return broadcast;
+    }
+
+    GameHistory history() {
+        return history;
+    }
+
+    // carry on from the stats of an earlier run, before the first hand is dealt
+    void restore(TableStats restored) {
+        call(() -> stats = restored);
+    }
+
+    // loop only -- O(1) per hand for the stats, the history write happens in the background
+    void record(Hand.Outcome[] outcomes, int count) {
+        history.record(outcomes, count);
+        for (int i = 0; i < count; i++) {
+            stats.record(outcomes[i]);
+        }
+        if (replication != null) {
+            replication.hands(this, outcomes, count);
+        }
+    }
+
+    // send every hand and shoe from now on to the replication log
+    void replicateTo(ReplicationLog replication) {
+        call(() -> this.replication = replication);
+    }
+
+    // loop only -- a standby takes the primary's shoe where it stands, and the outcomes it
+    // still has in its stats
+    // the shoe is kept in memory, a restart picks it up from the table snapshot
+    void follow(byte[] cards, int position, Hand.Outcome[] outcomes) {
+        followShoe(cards);
+        shoe.skipTo(position);
+        stats = new TableStats();
+        for (Hand.Outcome outcome : outcomes) {
+            stats.record(outcome);
+        }
+    }
+
+    // loop only -- the primary put a fresh shoe into play
+    void followShoe(byte[] cards) {
+        Shoe old = shoe;
+        shoe = new Shoe(cards);
+        old.close();
+    }
+
+    // loop only -- hands the primary dealt from the shoe being followed
+    void followHands(int position, Hand.Outcome[] outcomes) {
+        shoe.skipTo(position);
+        record(outcomes, outcomes.length);
+    }
+
+    // run the task on this table's loop and wait for it
+    // the caller's objects (its Hand, its output) are safe to hand over, the loop finishes
+    // with them before this returns
+    <T> T call(Callable<T> task) {
+        try {
+            return loop.submit(() -> {
+                if (closed) {
+                    throw new IllegalStateException("Table " + id + " is closed");
+                }
+                return task.call();
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for table " + id);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
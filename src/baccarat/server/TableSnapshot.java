@@ -0,0 +1,165 @@
+package baccarat.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// where every table stands, so a restart carries on with the same shoe, stats and road instead
+// of a fresh shoe and an empty history
+// a background thread has each table encode itself on its own loop (a few KB, less work than
+// a hand) and writes all of them as one file, replacing the old one in a single rename
+// startup maps the file and reads it in one pass; the hands dealt after it was written are
+// caught up from the end of the binary history, and the shoe's own files win when they are
+// further on, so a snapshot that is a little old loses nothing
+//
+// "BACW", int table count, then per table
+//   string id, byte 1 if the shoe has files of its own, int position, int card count, cards,
+//   long hands in the history, the stats as TableStats.write() puts them
+// then int CRC32 of everything before it
+// balances are not in it, the settlement journal keeps a snapshot of its own
+final class TableSnapshot {
+    private static final byte[] MAGIC = "BACW".getBytes(StandardCharsets.US_ASCII);
+
+    // one table as the snapshot has it
+    static final class Entry {
+        final boolean persisted;
+        final int position;
+        final byte[] cards;
+        final long historyHands;
+        final TableStats stats;
+
+        private Entry(boolean persisted, int position, byte[] cards, long historyHands, TableStats stats) {
+            this.persisted = persisted;
+            this.position = position;
+            this.cards = cards;
+            this.historyHands = historyHands;
+            this.stats = stats;
+        }
+    }
+
+    private final File file;
+    private final List<Table> tables;
+    // what the last write put in the file -- an idle server does not write it again
+    private byte[] last;
+
+    TableSnapshot(File file, List<Table> tables) {
+        this.file = file;
+        this.tables = tables;
+    }
+
+    // write every intervalMillis in the background
+    void start(long intervalMillis) {
+        Thread writer = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                write();
+            }
+        }, "table-snapshot");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // from any thread, one write at a time
+    synchronized void write() {
+        List<byte[]> encoded = new ArrayList<>(tables.size());
+        int size = MAGIC.length + 4 + 4;
+        for (Table table : tables) {
+            // a closed table's loop runs nothing more, its state can be read from here
+            byte[] entry = table.closed() ? encode(table) : table.call(() -> encode(table));
+            encoded.add(entry);
+            size += entry.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(MAGIC);
+        buf.putInt(tables.size());
+        for (byte[] entry : encoded) {
+            buf.put(entry);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        byte[] bytes = buf.array();
+        if (Arrays.equals(bytes, last)) {
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(bytes);
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            last = bytes;
+        } catch (IOException e) {
+            Log.error("Error writing table snapshot: " + e.getMessage());
+        }
+    }
+
+    // loop only
+    private static byte[] encode(Table table) {
+        Shoe shoe = table.shoe();
+        byte[] cards = shoe.cards();
+        TableStats stats = table.stats();
+        ByteBuffer buf = ByteBuffer.allocate(2 + 4 * table.id().length() + 1 + 8 + cards.length + 8 + stats.size());
+        SettlementRecord.putString(buf, table.id());
+        buf.put((byte) (shoe.persisted() ? 1 : 0));
+        buf.putInt(shoe.position());
+        buf.putInt(cards.length);
+        buf.put(cards);
+        buf.putLong(table.history().hands());
+        stats.write(buf);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    // the tables in the file by id -- none if there is no file, or it is damaged
+    static Map<String, Entry> read(File file) {
+        if (!file.exists()) {
+            return Map.of();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int end = buf.limit() - 4;
+            if (end < MAGIC.length + 4) {
+                throw new IOException("too short");
+            }
+            byte[] header = new byte[MAGIC.length];
+            buf.get(header);
+            if (!Arrays.equals(header, MAGIC)) {
+                throw new IOException("not a table snapshot");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().position(0).limit(end));
+            if ((int) crc.getValue() != buf.getInt(end)) {
+                throw new IOException("bad checksum");
+            }
+
+            Map<String, Entry> entries = new HashMap<>();
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                String id = BinaryProtocol.getString(buf);
+                boolean persisted = buf.get() != 0;
+                int position = buf.getInt();
+                byte[] cards = new byte[buf.getInt()];
+                buf.get(cards);
+                long historyHands = buf.getLong();
+                entries.put(id, new Entry(persisted, position, cards, historyHands, TableStats.read(buf)));
+            }
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Ignoring table snapshot " + file + ": " + e.getMessage());
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package baccarat.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// running statistics and roads for one table, updated in O(1) per hand
+// only the table's loop touches it, so there is no locking -- reads go through Table.call too
+//
+// - counts and longest streaks per outcome since the server started (a draw is its own streak)
+// - the last WINDOW outcomes in a ring, together with the running counts after each of them,
+//   so the counts over the last n hands are one subtraction
+// - the big road as a list of columns: consecutive banker or player wins stack in one column,
+//   draws are marked on the column they happened in
+//
+// write() and read() carry all of it across a restart: totals, longest streaks, the current
+// streak, hands, leading draws, the road columns, then the window oldest first -- the running
+// counts are worked out again from the totals, they are not stored
+public class TableStats {
+    public static final int WINDOW = 10_000;
+    // 6 rows like the printed bead plate, 12 columns of it are shown
+    private static final int ROWS = 6;
+    private static final int BEAD_COLUMNS = 12;
+    // big road columns kept for display
+    private static final int ROAD_COLUMNS = 60;
+    private static final String[] NAMES = { "Player", "Banker", "Draw" };
+    private static final char[] LETTERS = { 'P', 'B', 'D' };
+
+    private final long[] totals = new long[3];
+    private final long[] longest = new long[3];
+    private int streakOutcome = -1;
+    private long streakLength;
+
+    private final byte[] recent = new byte[WINDOW];
+    // totals after hand i, at (i % WINDOW) * 3
+    private final long[] runningTotals = new long[WINDOW * 3];
+    private long hands;
+
+    // { outcome, length, draws }
+    private final ArrayDeque<long[]> road = new ArrayDeque<>();
+    // draws before the first banker or player win
+    private long leadingDraws;
+
+    public void record(Hand.Outcome outcome) {
+        int o = outcome.ordinal();
+        totals[o]++;
+
+        if (o == streakOutcome) {
+            streakLength++;
+        } else {
+            streakOutcome = o;
+            streakLength = 1;
+        }
+        longest[o] = Math.max(longest[o], streakLength);
+
+        int slot = (int) (hands % WINDOW);
+        recent[slot] = (byte) o;
+        System.arraycopy(totals, 0, runningTotals, slot * 3, 3);
+        hands++;
+
+        if (outcome == Hand.Outcome.DRAW) {
+            if (road.isEmpty()) {
+                leadingDraws++;
+            } else {
+                road.peekLast()[2]++;
+            }
+        } else if (!road.isEmpty() && road.peekLast()[0] == o) {
+            road.peekLast()[1]++;
+        } else {
+            road.addLast(new long[] { o, 1, 0 });
+            if (road.size() > ROAD_COLUMNS) {
+                road.removeFirst();
+            }
+        }
+    }
+
+    public long hands() {
+        return hands;
+    }
+
+    // the last outcomes in the order they were dealt, at most WINDOW of them, as ordinals
+    public byte[] recent() {
+        int n = (int) Math.min(hands, WINDOW);
+        byte[] outcomes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            outcomes[i] = recent[(int) ((hands - n + i) % WINDOW)];
+        }
+        return outcomes;
+    }
+
+    // room write() needs
+    int size() {
+        return 6 * 8 + 1 + 8 + 8 + 8 + 4 + road.size() * 17 + 4 + (int) Math.min(hands, WINDOW);
+    }
+
+    void write(ByteBuffer buf) {
+        for (int o = 0; o < 3; o++) {
+            buf.putLong(totals[o]);
+            buf.putLong(longest[o]);
+        }
+        buf.put((byte) streakOutcome);
+        buf.putLong(streakLength);
+        buf.putLong(hands);
+        buf.putLong(leadingDraws);
+        buf.putInt(road.size());
+        for (long[] column : road) {
+            buf.put((byte) column[0]);
+            buf.putLong(column[1]);
+            buf.putLong(column[2]);
+        }
+        byte[] window = recent();
+        buf.putInt(window.length);
+        buf.put(window);
+    }
+
+    static TableStats read(ByteBuffer buf) {
+        TableStats stats = new TableStats();
+        for (int o = 0; o < 3; o++) {
+            stats.totals[o] = buf.getLong();
+            stats.longest[o] = buf.getLong();
+        }
+        stats.streakOutcome = buf.get();
+        stats.streakLength = buf.getLong();
+        stats.hands = buf.getLong();
+        stats.leadingDraws = buf.getLong();
+        int columns = buf.getInt();
+        for (int i = 0; i < columns; i++) {
+            stats.road.addLast(new long[] { buf.get(), buf.getLong(), buf.getLong() });
+        }
+        byte[] window = new byte[buf.getInt()];
+        buf.get(window);
+        if (window.length > Math.min(stats.hands, WINDOW)) {
+            throw new IllegalArgumentException("More recent hands than hands: " + window.length);
+        }
+        // from the last hand back, taking each one off the totals
+        long[] running = stats.totals.clone();
+        for (int i = window.length - 1; i >= 0; i--) {
+            int slot = (int) ((stats.hands - window.length + i) % WINDOW);
+            stats.recent[slot] = window[i];
+            System.arraycopy(running, 0, stats.runningTotals, slot * 3, 3);
+            running[window[i]]--;
+        }
+        return stats;
+    }
+
+    // counts per outcome over the last n hands, n is capped at WINDOW and at the hands dealt
+    public long[] lastCounts(int n) {
+        n = (int) Math.min(Math.min(n, WINDOW), hands);
+        long[] counts = new long[3];
+        if (n == 0) {
+            return counts;
+        }
+        int last = (int) ((hands - 1) % WINDOW);
+        for (int o = 0; o < 3; o++) {
+            counts[o] = runningTotals[last * 3 + o];
+        }
+        if (n < hands) {
+            int before = (int) ((hands - 1 - n) % WINDOW);
+            for (int o = 0; o < 3; o++) {
+                counts[o] -= runningTotals[before * 3 + o];
+            }
+        }
+        return counts;
+    }
+
+    // "Banker 45.8% (565), Player 44.6% (550), Draw 9.6% (119)" and the streaks
+    public void describe(int lastN, StringBuilder out) {
+        out.append(hands).append(" hands").append("\n");
+        appendRates(totals, hands, out);
+        out.append("Longest streaks: Banker ").append(longest[1]).append(", Player ").append(longest[0])
+                .append(", Draw ").append(longest[2]).append("\n");
+        if (streakOutcome >= 0) {
+            out.append("Current streak: ").append(NAMES[streakOutcome]).append(' ').append(streakLength).append("\n");
+        }
+        long[] window = lastCounts(lastN);
+        long n = window[0] + window[1] + window[2];
+        out.append("Last ").append(n).append(" hands: ");
+        appendRates(window, n, out);
+    }
+
+    private static void appendRates(long[] counts, long n, StringBuilder out) {
+        int[] order = { 1, 0, 2 };
+        for (int i = 0; i < order.length; i++) {
+            int o = order[i];
+            if (i > 0) {
+                out.append(", ");
+            }
+            double rate = (n == 0) ? 0 : 100.0 * counts[o] / n;
+            out.append(NAMES[o]).append(' ').append(String.format("%.1f%%", rate)).append(" (").append(counts[o])
+                    .append(')');
+        }
+        out.append("\n");
+    }
+
+    // the last hands six to a column, read down then across
+    // slots not dealt yet show as '.' so no line comes out empty
+    public void beadPlate(StringBuilder out) {
+        if (hands == 0) {
+            out.append("No hands dealt yet.").append("\n");
+            return;
+        }
+        // start on a column boundary so a hand stays in the same row as the plate fills
+        long columns = (hands + ROWS - 1) / ROWS;
+        long first = Math.max(0, columns - BEAD_COLUMNS) * ROWS;
+        for (int row = 0; row < ROWS; row++) {
+            for (long i = first + row; i < columns * ROWS; i += ROWS) {
+                if (i > first + row) {
+                    out.append(' ');
+                }
+                out.append((i < hands) ? LETTERS[recent[(int) (i % WINDOW)]] : '.');
+            }
+            out.append("\n");
+        }
+    }
+
+    // "B4 P1 B2+1D ..." -- one token per column, draws after the '+'
+    public void bigRoad(StringBuilder out) {
+        StringBuilder line = new StringBuilder();
+        if (leadingDraws > 0) {
+            line.append('+').append(leadingDraws).append("D ");
+        }
+        for (long[] column : road) {
+            line.append(LETTERS[(int) column[0]]).append(column[1]);
+            if (column[2] > 0) {
+                line.append('+').append(column[2]).append('D');
+            }
+            line.append(' ');
+        }
+        out.append((line.length() == 0) ? "-" : line.toString().trim()).append("\n");
+    }
+}
@@ -0,0 +1,79 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// the mapped store's fixed-width slots: what does not fit is refused before any cards are dealt
+class AccountSlotsTest {
+    @TempDir
+    File dir;
+
+    Shoe shoe;
+    AccountStore accounts;
+    GameHistory history;
+    BaccaratGame game;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shoe = new Shoe(Cards.shuffled(1, new Random(1)));
+        accounts = AccountStore.openMapped(new File(dir, "accounts.map"), ForcePolicy.parse("op"));
+        history = GameHistory.open(new File(dir, "game_history.csv"));
+        game = new BaccaratGame(shoe, accounts, history);
+    }
+
+    @AfterEach
+    void tearDown() {
+        history.close();
+        accounts.close();
+    }
+
+    @Test
+    void longUsernameIsRefusedAtLogin() throws IOException {
+        String username = "a".repeat(32);
+
+        String reply = game.handle(new String[] { "login", username, "100" });
+
+        assertEquals("Account not supported: usernames are limited to 31 bytes.\n", reply);
+        assertEquals("User bob logged in with balance: 100\n", game.handle(new String[] { "login", "bob", "100" }));
+    }
+
+    @Test
+    void dealThatCouldOutgrowTheSlotIsRefusedBeforeDealing() throws IOException {
+        // 31 bytes is the widest balance a slot holds, a tie bet returns 9 stakes
+        BigInteger balance = BigInteger.TWO.pow(246);
+        BigInteger bet = BigInteger.TWO.pow(245);
+        game.handle(new String[] { "login", "bob", balance.toString() });
+
+        Hand hand = new Hand();
+        BaccaratGame.Settlement settlement = game.deal("bob", "D", bet, hand);
+
+        assertEquals(BaccaratGame.DealStatus.UNSUPPORTED, settlement.status);
+        assertEquals(balance, settlement.balance);
+        assertEquals(balance, accounts.get("bob"));
+        assertEquals(shoe.size(), shoe.remaining());
+
+        String reply = game.handle(new String[] { "multideal", "3", "D", bet.toString(), "bob" });
+        assertTrue(reply.startsWith("Account not supported"), reply);
+        assertEquals(balance, accounts.get("bob"));
+        assertEquals(shoe.size(), shoe.remaining());
+    }
+
+    @Test
+    void dealWithinTheSlotStillSettles() throws IOException {
+        game.handle(new String[] { "login", "bob", "1000" });
+
+        BaccaratGame.Settlement settlement = game.deal("bob", "B", BigInteger.TEN, new Hand());
+
+        assertEquals(BaccaratGame.DealStatus.SETTLED, settlement.status);
+        assertEquals(settlement.balance, accounts.get("bob"));
+    }
+}
@@ -0,0 +1,58 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// commands a game refuses before any stake is reserved or any card dealt
+class BaccaratGameTest {
+    @TempDir
+    File dir;
+
+    Shoe shoe;
+    AccountStore accounts;
+    GameHistory history;
+    BaccaratGame game;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shoe = new Shoe(Cards.shuffled(1, new Random(1)));
+        accounts = AccountStore.openSettlements(new File(dir, "settlements.journal"),
+                new File(dir, "settlements.snapshot"), null);
+        history = GameHistory.open(new File(dir, "game_history.csv"));
+        game = new BaccaratGame(shoe, accounts, history);
+    }
+
+    @AfterEach
+    void tearDown() {
+        history.close();
+        accounts.close();
+    }
+
+    @Test
+    void zeroAndNegativeStakesAreRefusedBeforeAnythingIsReserved() throws IOException {
+        game.handle(new String[] { "login", "bob", "1000" });
+
+        for (String amount : new String[] { "0", "-10" }) {
+            assertEquals("Invalid command.\n", game.handle(new String[] { "bet", amount, "bob" }));
+            assertEquals("Invalid command.\n", game.handle(new String[] { "deal", "B", amount, "bob" }));
+            assertEquals("Invalid command.\n", game.handle(new String[] { "deal", "P", amount, "bob", "r1" }));
+            assertEquals("Invalid command.\n", game.handle(new String[] { "multideal", "1000", "B", amount, "bob" }));
+            assertThrows(IllegalArgumentException.class,
+                    () -> game.deal("bob", "D", new BigInteger(amount), new Hand()));
+        }
+
+        assertEquals(BigInteger.valueOf(1000), accounts.get("bob"));
+        assertEquals(shoe.size(), shoe.remaining());
+        // and a real stake still deals
+        assertEquals(BaccaratGame.DealStatus.SETTLED, game.deal("bob", "B", BigInteger.TEN, new Hand()).status);
+    }
+}
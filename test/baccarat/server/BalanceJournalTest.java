@@ -0,0 +1,65 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// the write-behind text journal: a batch it cannot write fails the journal instead of vanishing
+class BalanceJournalTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void failedWriteRefusesEveryLaterChange() throws Exception {
+        File journalFile = new File(dir, "accounts.journal");
+        FailingChannel[] channel = new FailingChannel[1];
+        ConcurrentHashMap<String, BigInteger> balances = new ConcurrentHashMap<>();
+        BalanceJournal journal = new BalanceJournal(journalFile, balances, path -> {
+            channel[0] = new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            return channel[0];
+        });
+        AccountStore accounts = new AccountStore(balances, journal);
+        GameHistory history = GameHistory.open(new File(dir, "game_history.csv"));
+        BaccaratGame game = new BaccaratGame(new Shoe(Cards.shuffled(1, new Random(1))), accounts, history);
+        try {
+            assertEquals("User bob logged in with balance: 1000\n",
+                    game.handle(new String[] { "login", "bob", "1000" }));
+            // written behind, so wait for the line to reach the file
+            long deadline = System.currentTimeMillis() + 5000;
+            while (journalFile.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            channel[0].failing = true;
+            // already answered when the writer gets to it
+            game.handle(new String[] { "login", "alice", "5" });
+            String reply = "";
+            deadline = System.currentTimeMillis() + 5000;
+            while (!reply.startsWith("Server error") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                reply = game.handle(new String[] { "login", "carol", "7" });
+            }
+            assertEquals(BaccaratGame.NOT_SAVED + "\n", reply);
+            assertEquals(BaccaratGame.NOT_SAVED + "\n", game.handle(new String[] { "deal", "B", "10", "bob" }));
+            assertEquals(BigInteger.valueOf(1000), accounts.get("bob"));
+        } finally {
+            history.close();
+            accounts.close();
+        }
+
+        ConcurrentHashMap<String, BigInteger> reopened = new ConcurrentHashMap<>();
+        new BalanceJournal(journalFile, reopened).close();
+        assertEquals(BigInteger.valueOf(1000), reopened.get("bob"));
+        assertFalse(reopened.containsKey("carol"));
+    }
+}
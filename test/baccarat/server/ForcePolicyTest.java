@@ -0,0 +1,47 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ForcePolicyTest {
+
+    @Test
+    void groupAwaitReturnsOnceAForceCoversTheWrite() throws Exception {
+        AtomicInteger forces = new AtomicInteger();
+        ForcePolicy.Forcer forcer = ForcePolicy.parse("group").start("test-force", (offset, length) -> {
+        }, forces::incrementAndGet);
+        try {
+            ExecutorService callers = Executors.newFixedThreadPool(8);
+            Future<?>[] done = new Future<?>[100];
+            for (int i = 0; i < done.length; i++) {
+                done[i] = callers.submit(() -> forcer.await(forcer.written(0, 8)));
+            }
+            for (Future<?> f : done) {
+                assertTimeoutPreemptively(Duration.ofSeconds(5), () -> f.get());
+            }
+            callers.shutdown();
+            assertTrue(forces.get() >= 1 && forces.get() <= 100, "forces: " + forces.get());
+        } finally {
+            forcer.close();
+        }
+    }
+
+    @Test
+    void closeForcesWhatIsLeft() {
+        AtomicInteger forces = new AtomicInteger();
+        ForcePolicy.Forcer forcer = ForcePolicy.parse("periodic:60000").start("test-force", (offset, length) -> {
+        }, forces::incrementAndGet);
+        forcer.written(0, 8);
+
+        forcer.close();
+
+        assertEquals(1, forces.get());
+    }
+}
@@ -0,0 +1,111 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// a store replicated to a standby must behave as the store it wraps, and a standby that connects
+// part way through a deal must end up with the primary's balance
+class ReplicationLogTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void syncWhileAStakeIsReservedCountsItOnce() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ExecutorService[] loops = Table.newLoops(2);
+
+        GameHistory history = GameHistory.open(new File(dir, "primary.csv"));
+        Table table = new Table("main", new Shoe(Cards.shuffled(1, new Random(1))), history, loops[0]);
+        ReplicationLog replication = new ReplicationLog(port, List.of(table));
+        AccountStore accounts = open("primary").replicatedTo(replication);
+        replication.start(accounts);
+
+        GameHistory standbyHistory = GameHistory.open(new File(dir, "standby.csv"));
+        Table standbyTable = new Table("main", new Shoe(Cards.shuffled(1, new Random(2))), standbyHistory,
+                loops[1]);
+        AccountStore standbyAccounts = open("standby");
+        BaccaratGame standbyGame = new BaccaratGame(List.of(standbyTable), standbyAccounts);
+        Thread follower = new Thread(() -> {
+            try {
+                new Standby("localhost", port, standbyGame, standbyAccounts).follow();
+            } catch (InterruptedException e) {
+                // test over
+            }
+        });
+        follower.setDaemon(true);
+        try {
+            accounts.set("bob", BigInteger.valueOf(1000));
+            // a deal has taken its stake and is still being dealt when the standby connects
+            assertTrue(accounts.reserve("bob", BigInteger.valueOf(100)));
+            follower.start();
+            assertEquals(BigInteger.valueOf(1000), awaitBalance(standbyAccounts, "bob", 1000));
+
+            // the hand wins 1:1
+            SettlementRecord record = SettlementRecord.of(false, "bob", null, "main", "B", BigInteger.valueOf(100),
+                    BigInteger.valueOf(200), new Hand());
+            assertEquals(BigInteger.valueOf(1100), accounts.settle("bob", BigInteger.valueOf(200), List.of(record)));
+            assertEquals(BigInteger.valueOf(1100), awaitBalance(standbyAccounts, "bob", 1100));
+        } finally {
+            follower.interrupt();
+            accounts.close();
+            standbyAccounts.close();
+            history.close();
+            standbyHistory.close();
+        }
+    }
+
+    @Test
+    void replicatedSlotsStillRefuseWhatASlotCannotHold() throws IOException {
+        GameHistory history = GameHistory.open(new File(dir, "primary.csv"));
+        Shoe shoe = new Shoe(Cards.shuffled(1, new Random(1)));
+        Table table = new Table("main", shoe, history, Table.newLoops(1)[0]);
+        ReplicationLog replication = new ReplicationLog(0, List.of(table));
+        AccountStore accounts = AccountStore.openMapped(new File(dir, "accounts.map"), ForcePolicy.parse("op"))
+                .replicatedTo(replication);
+        BaccaratGame game = new BaccaratGame(List.of(table), accounts);
+        try {
+            assertEquals("Account not supported: usernames are limited to 31 bytes.\n",
+                    game.handle(new String[] { "login", "a".repeat(40), "100" }));
+
+            BigInteger balance = BigInteger.TWO.pow(246);
+            game.handle(new String[] { "login", "bob", balance.toString() });
+            BaccaratGame.Settlement settlement = game.deal("bob", "D", BigInteger.TWO.pow(245), new Hand());
+            assertEquals(BaccaratGame.DealStatus.UNSUPPORTED, settlement.status);
+            assertEquals(balance, accounts.get("bob"));
+            assertEquals(shoe.size(), shoe.remaining());
+        } finally {
+            accounts.close();
+            history.close();
+        }
+    }
+
+    private AccountStore open(String name) throws IOException {
+        return AccountStore.openSettlements(new File(dir, name + ".journal"), new File(dir, name + ".snapshot"), null);
+    }
+
+    // the standby applies frames on its own thread -- wait for the balance, or give up and
+    // return whatever it has
+    private static BigInteger awaitBalance(AccountStore accounts, String username, long expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        BigInteger balance = accounts.get(username);
+        while (!balance.equals(BigInteger.valueOf(expected)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            balance = accounts.get(username);
+        }
+        return balance;
+    }
+}
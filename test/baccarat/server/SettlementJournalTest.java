@@ -0,0 +1,98 @@
+package baccarat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// a journal that cannot get a batch to disk must not report it settled, nor snapshot it, and what
+// it accepts must read back the same
+class SettlementJournalTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void failedForceIsReportedAndLeftOutOfTheSnapshot() throws IOException {
+        File journalFile = new File(dir, "accounts.bin");
+        File snapshotFile = new File(dir, "accounts.snapshot");
+        FailingChannel[] channel = new FailingChannel[1];
+        ConcurrentHashMap<String, BigInteger> balances = new ConcurrentHashMap<>();
+        SettlementJournal journal = new SettlementJournal(journalFile, snapshotFile, null, balances, path -> {
+            channel[0] = new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            return channel[0];
+        });
+        AccountStore accounts = new AccountStore(balances, journal);
+        GameHistory history = GameHistory.open(new File(dir, "game_history.csv"));
+        BaccaratGame game = new BaccaratGame(new Shoe(Cards.shuffled(1, new Random(1))), accounts, history);
+        try {
+            assertEquals("User bob logged in with balance: 1000\n",
+                    game.handle(new String[] { "login", "bob", "1000" }));
+
+            channel[0].failing = true;
+            String reply = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> game.handle(new String[] { "deal", "B", "10", "bob" }));
+            assertEquals(BaccaratGame.NOT_SAVED + "\n", reply);
+
+            // nothing more is taken once the journal has failed
+            assertEquals(BaccaratGame.NOT_SAVED + "\n", game.handle(new String[] { "login", "alice", "5" }));
+            assertEquals(BaccaratGame.NOT_SAVED + "\n", game.handle(new String[] { "deal", "P", "10", "bob" }));
+        } finally {
+            history.close();
+            accounts.close();
+        }
+
+        // the snapshot taken at close has the login, not the hand that never reached disk
+        ConcurrentHashMap<String, BigInteger> reopened = new ConcurrentHashMap<>();
+        new SettlementJournal(journalFile, snapshotFile, null, reopened).close();
+        assertEquals(BigInteger.valueOf(1000), reopened.get("bob"));
+        assertFalse(reopened.containsKey("alice"));
+    }
+
+    @Test
+    void widestBalanceComesBackFromTheJournalAndTheSnapshot() throws IOException {
+        // 255 bytes of two's complement is the most the one-byte length prefix describes
+        BigInteger widest = BigInteger.TWO.pow(255 * 8 - 1).subtract(BigInteger.ONE);
+        BigInteger tooWide = widest.add(BigInteger.ONE);
+        File journalFile = new File(dir, "accounts.bin");
+        File snapshotFile = new File(dir, "accounts.snapshot");
+        AccountStore accounts = AccountStore.openSettlements(journalFile, snapshotFile, null);
+        GameHistory history = GameHistory.open(new File(dir, "game_history.csv"));
+        BaccaratGame game = new BaccaratGame(new Shoe(Cards.shuffled(1, new Random(1))), accounts, history);
+        try {
+            assertEquals("User bob logged in with balance: " + widest + "\n",
+                    game.handle(new String[] { "login", "bob", widest.toString() }));
+            assertEquals("Account not supported: balances are limited to 255 bytes.\n",
+                    game.handle(new String[] { "login", "alice", tooWide.toString() }));
+            game.handle(new String[] { "login", "carol", "100" });
+
+            // the journal on its own, as replay reads it after a crash
+            File copy = new File(dir, "copy.bin");
+            Files.copy(journalFile.toPath(), copy.toPath());
+            ConcurrentHashMap<String, BigInteger> replayed = new ConcurrentHashMap<>();
+            new SettlementJournal(copy, new File(dir, "copy.snapshot"), null, replayed).close();
+            assertEquals(widest, replayed.get("bob"));
+            assertEquals(BigInteger.valueOf(100), replayed.get("carol"));
+            assertFalse(replayed.containsKey("alice"));
+        } finally {
+            history.close();
+            accounts.close();
+        }
+
+        // and from the snapshot written at close
+        ConcurrentHashMap<String, BigInteger> reopened = new ConcurrentHashMap<>();
+        new SettlementJournal(journalFile, snapshotFile, null, reopened).close();
+        assertEquals(widest, reopened.get("bob"));
+        assertEquals(BigInteger.valueOf(100), reopened.get("carol"));
+    }
+}